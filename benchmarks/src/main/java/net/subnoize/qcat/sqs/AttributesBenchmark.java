@@ -0,0 +1,64 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+/**
+ * Building message attributes with SqsMessageAttributes.Builder through the
+ * typed and the Object overloads.
+ *
+ * @author John Bryant
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributesBenchmark {
+
+	private final byte[] binary = { 0x71, 0x63, 0x61, 0x74 };
+
+	private final Object[] values = { "subnoize", 42, 3.14d, binary };
+
+	@Benchmark
+	public Map<String, MessageAttributeValue> typed() {
+		return SqsMessageAttributes.builder().attr("tenant", "subnoize").attr("count", 42).attr("ratio", 3.14d)
+				.attr("blob", binary).build();
+	}
+
+	@Benchmark
+	public Map<String, MessageAttributeValue> untyped() {
+		return SqsMessageAttributes.builder().attr("tenant", values[0]).attr("count", values[1])
+				.attr("ratio", values[2]).attr("blob", values[3]).build();
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The entry point of the benchmarks jar. Takes the usual JMH command line and
+ * adds the GC profiler, so every run reports allocation rates alongside the
+ * timings.
+ *
+ * <pre>
+ * <code>
+ * java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regex]
+ * </code>
+ * </pre>
+ *
+ * @author John Bryant
+ *
+ */
+public final class Benchmarks {
+
+	private Benchmarks() {
+		super();
+	}
+
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListProfilers() || cmd.shouldListResultFormats()
+				|| cmd.shouldListWithParams()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(cmd);
+		if (cmd.getProfilers().stream().noneMatch(p -> GCProfiler.class.getName().equals(p.getKlass()))) {
+			options.addProfiler(GCProfiler.class);
+		}
+		new Runner(options.build()).run();
+	}
+}
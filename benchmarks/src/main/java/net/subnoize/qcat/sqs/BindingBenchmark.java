@@ -0,0 +1,82 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.subnoize.qcat.Session;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * The per message work of SqsExecutionTemplate before the listener is called:
+ * creating the Session and binding it to the method arguments, for a method
+ * taking a JSON payload, the Session and an attribute and for one taking the
+ * plain String body.
+ *
+ * @author John Bryant
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BindingBenchmark {
+
+	private SqsExecutionTemplate order;
+
+	private SqsExecutionTemplate text;
+
+	private Message message;
+
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		ObjectMapper mapper = new ObjectMapper();
+		order = Fixtures.template("order", mapper);
+		text = Fixtures.template("text", mapper);
+		message = Fixtures.message();
+	}
+
+	@Benchmark
+	public Session<Message> newSession() {
+		return order.newSession(message);
+	}
+
+	@Benchmark
+	public Object[] bindOrder() {
+		return order.bind(order.newSession(message));
+	}
+
+	@Benchmark
+	public Object[] bindText() {
+		return text.bind(text.newSession(message));
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.List;
+import java.util.Map;
+
+import net.subnoize.qcat.Session;
+import net.subnoize.qcat.listen.ListenTo;
+import net.subnoize.qcat.model.Attribute;
+import net.subnoize.qcat.model.Payload;
+import net.subnoize.qcat.send.SendTo;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+/**
+ * Shared payloads, messages and listener methods for the benchmarks
+ *
+ * @author John Bryant
+ *
+ */
+public final class Fixtures {
+
+	public static final String ORDER_JSON = "{\"id\":\"A-1001\",\"customer\":\"cat@subnoize.net\",\"quantity\":3,"
+			+ "\"price\":12.5,\"lines\":[\"kibble\",\"yarn\",\"box\"]}";
+
+	public static final Map<String, MessageAttributeValue> ATTRIBUTES = SqsMessageAttributes.builder()
+			.attr("txnid", "5b0c6e2e-4f3a-4bb5-9d55-1f1f1f1f1f1f").attr("tenant", "subnoize").attr("retries", 0)
+			.build();
+
+	private Fixtures() {
+		super();
+	}
+
+	public static Message message() {
+		return Message.builder().messageId("1").receiptHandle("1").body(ORDER_JSON).messageAttributes(ATTRIBUTES)
+				.build();
+	}
+
+	/**
+	 * A template set up the way SqsExecutionTemplate.init would, minus the queue
+	 * URL lookups
+	 *
+	 * @param name   of the Listener method
+	 * @param mapper
+	 * @return the template
+	 * @throws NoSuchMethodException
+	 */
+	public static SqsExecutionTemplate template(String name, com.fasterxml.jackson.databind.ObjectMapper mapper)
+			throws NoSuchMethodException {
+		SqsExecutionTemplate template = new SqsExecutionTemplate();
+		for (java.lang.reflect.Method m : Listener.class.getMethods()) {
+			if (m.getName().equals(name)) {
+				template.setMethod(m);
+			}
+		}
+		if (template.getMethod() == null) {
+			throw new NoSuchMethodException(name);
+		}
+		template.setTarget(new Listener());
+		template.setMapper(mapper);
+		template.setQueueUrl("https://stub.local/000000000000/in");
+		template.setSendToPresent(template.getMethod().isAnnotationPresent(SendTo.class));
+		template.setSendTo("https://stub.local/000000000000/out");
+		template.bindInvoker();
+		template.compileBindings();
+		return template;
+	}
+
+	public static class Order {
+
+		public String id;
+
+		public String customer;
+
+		public int quantity;
+
+		public double price;
+
+		public List<String> lines;
+	}
+
+	public static class Listener {
+
+		@ListenTo(value = "in", transactionId = "txnid")
+		@SendTo("out")
+		public Order order(@Payload Order order, Session<Message> session, @Attribute("tenant") String tenant) {
+			return order;
+		}
+
+		@ListenTo("in")
+		public void text(String body) {
+			// the String payload path, no Jackson involved
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.subnoize.qcat.listen.Invoker;
+
+/**
+ * Compares calling a listener method through the generated invoker of
+ * SqsExecutionTemplate against the MethodHandle and reflection fallbacks of
+ * Invoker and a direct call.
+ *
+ * <pre>
+ * <code>
+ * java -jar benchmarks/target/benchmarks.jar InvokerBenchmark -prof gc
+ * </code>
+ * </pre>
+ *
+ * @author John Bryant
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+
+	private Listener listener;
+
+	private Method method;
+
+	private Invoker reflective;
+
+	private SqsExecutionTemplate generated;
+
+	private Invoker handle;
+
+	private Object[] args;
+
+	@Setup
+	public void setup() throws NoSuchMethodException, IllegalAccessException {
+		listener = new Listener();
+		method = Listener.class.getMethod("handle", String.class, String.class);
+		reflective = Invoker.reflect(method, listener);
+		generated = new SqsExecutionTemplate();
+		generated.setMethod(method);
+		generated.setTarget(listener);
+		generated.bindInvoker();
+		handle = Invoker.bind(method, listener);
+		args = new Object[] { "payload", "txn-1" };
+	}
+
+	@Benchmark
+	public Object direct() {
+		return listener.handle((String) args[0], (String) args[1]);
+	}
+
+	@Benchmark
+	public Object reflection() throws Throwable {
+		return reflective.invoke(args);
+	}
+
+	@Benchmark
+	public Object methodHandle() throws Throwable {
+		return handle.invoke(args);
+	}
+
+	@Benchmark
+	public Object generated() throws IllegalAccessException, InvocationTargetException {
+		return generated.invoke(args);
+	}
+
+	public static class Listener {
+
+		public int handle(String payload, String txnId) {
+			return payload.length() + txnId.length();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import net.subnoize.qcat.sqs.Fixtures.Order;
+
+/**
+ * Reading the payload and writing the result: the cached reader and writer of
+ * SqsExecutionTemplate against asking the ObjectMapper each time.
+ *
+ * @author John Bryant
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+	private ObjectMapper mapper;
+
+	private ObjectReader reader;
+
+	private SqsExecutionTemplate template;
+
+	private Order order;
+
+	@Setup
+	public void setup() throws NoSuchMethodException, IOException {
+		mapper = new ObjectMapper();
+		reader = mapper.readerFor(Order.class);
+		template = Fixtures.template("order", mapper);
+		order = reader.readValue(Fixtures.ORDER_JSON);
+	}
+
+	@Benchmark
+	public Order readMapper() throws IOException {
+		return mapper.readValue(Fixtures.ORDER_JSON, Order.class);
+	}
+
+	@Benchmark
+	public Order readCached() throws IOException {
+		return reader.readValue(Fixtures.ORDER_JSON);
+	}
+
+	@Benchmark
+	public String writeMapper() throws JsonProcessingException {
+		return mapper.writeValueAsString(order);
+	}
+
+	@Benchmark
+	public String writeCached() throws IOException {
+		return template.encode(order);
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageResponse;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesResponse;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+
+/**
+ * An in-process SqsAsyncClient for benchmarks. Every receive returns a full
+ * batch of the same canned message and every call answers after a fixed
+ * latency, so the numbers show the cost of Qcat rather than of the network.
+ *
+ * @author John Bryant
+ *
+ */
+public class StubSqsAsyncClient implements SqsAsyncClient {
+
+	private final ScheduledExecutorService network = Executors.newScheduledThreadPool(2, r -> {
+		Thread t = new Thread(r, "stub-sqs");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final long latencyMicros;
+
+	private final String body;
+
+	private final Map<String, MessageAttributeValue> attributes;
+
+	private final AtomicLong ids = new AtomicLong();
+
+	private final AtomicLong calls = new AtomicLong();
+
+	public StubSqsAsyncClient(long latencyMicros, String body, Map<String, MessageAttributeValue> attributes) {
+		this.latencyMicros = latencyMicros;
+		this.body = body;
+		this.attributes = attributes;
+	}
+
+	/**
+	 * @return the number of API calls made so far
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	private <T> CompletableFuture<T> answer(Supplier<T> response) {
+		calls.incrementAndGet();
+		if (latencyMicros <= 0) {
+			return CompletableFuture.completedFuture(response.get());
+		}
+		CompletableFuture<T> fut = new CompletableFuture<>();
+		network.schedule(() -> fut.complete(response.get()), latencyMicros, TimeUnit.MICROSECONDS);
+		return fut;
+	}
+
+	@Override
+	public CompletableFuture<ReceiveMessageResponse> receiveMessage(ReceiveMessageRequest req) {
+		int count = req.maxNumberOfMessages() == null ? 1 : req.maxNumberOfMessages();
+		return answer(() -> {
+			List<Message> messages = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				String id = Long.toString(ids.incrementAndGet());
+				messages.add(Message.builder().messageId(id).receiptHandle(id).body(body).messageAttributes(attributes)
+						.build());
+			}
+			return ReceiveMessageResponse.builder().messages(messages).build();
+		});
+	}
+
+	@Override
+	public CompletableFuture<DeleteMessageResponse> deleteMessage(DeleteMessageRequest req) {
+		return answer(() -> DeleteMessageResponse.builder().build());
+	}
+
+	@Override
+	public CompletableFuture<DeleteMessageBatchResponse> deleteMessageBatch(DeleteMessageBatchRequest req) {
+		return answer(() -> DeleteMessageBatchResponse.builder().successful(req.entries().stream()
+				.map(e -> DeleteMessageBatchResultEntry.builder().id(e.id()).build()).collect(Collectors.toList()))
+				.build());
+	}
+
+	@Override
+	public CompletableFuture<SendMessageResponse> sendMessage(SendMessageRequest req) {
+		return answer(() -> SendMessageResponse.builder().messageId(Long.toString(ids.incrementAndGet())).build());
+	}
+
+	@Override
+	public CompletableFuture<SendMessageBatchResponse> sendMessageBatch(SendMessageBatchRequest req) {
+		return answer(() -> SendMessageBatchResponse.builder()
+				.successful(req.entries().stream().map(e -> SendMessageBatchResultEntry.builder().id(e.id())
+						.messageId(Long.toString(ids.incrementAndGet())).build()).collect(Collectors.toList()))
+				.build());
+	}
+
+	@Override
+	public CompletableFuture<ChangeMessageVisibilityResponse> changeMessageVisibility(
+			ChangeMessageVisibilityRequest req) {
+		return answer(() -> ChangeMessageVisibilityResponse.builder().build());
+	}
+
+	@Override
+	public CompletableFuture<ChangeMessageVisibilityBatchResponse> changeMessageVisibilityBatch(
+			ChangeMessageVisibilityBatchRequest req) {
+		return answer(() -> ChangeMessageVisibilityBatchResponse.builder()
+				.successful(req.entries().stream()
+						.map(e -> ChangeMessageVisibilityBatchResultEntry.builder().id(e.id()).build())
+						.collect(Collectors.toList()))
+				.build());
+	}
+
+	@Override
+	public CompletableFuture<GetQueueUrlResponse> getQueueUrl(GetQueueUrlRequest req) {
+		return answer(() -> GetQueueUrlResponse.builder().queueUrl("https://stub.local/000000000000/" + req.queueName())
+				.build());
+	}
+
+	@Override
+	public CompletableFuture<GetQueueAttributesResponse> getQueueAttributes(GetQueueAttributesRequest req) {
+		return answer(() -> GetQueueAttributesResponse.builder()
+				.attributes(Map.of(QueueAttributeName.VISIBILITY_TIMEOUT, "30")).build());
+	}
+
+	@Override
+	public String serviceName() {
+		return SERVICE_NAME;
+	}
+
+	@Override
+	public void close() {
+		network.shutdownNow();
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.subnoize.qcat.QcatConfiguration;
+import net.subnoize.qcat.listen.Listen;
+import net.subnoize.qcat.listen.ListenTo;
+import net.subnoize.qcat.model.Payload;
+import net.subnoize.qcat.send.SendTo;
+import net.subnoize.qcat.sqs.Fixtures.Order;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+
+/**
+ * Messages per second through a complete Qcat4Sqs worker: receive, bind,
+ * invoke, send the result and acknowledge, against a StubSqsAsyncClient that
+ * answers every call after {@code latencyMicros}.
+ *
+ * @author John Bryant
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkerThroughputBenchmark {
+
+	private static final int MESSAGES = 1000;
+
+	@Param({ "0", "1000" })
+	private long latencyMicros;
+
+	private AnnotationConfigApplicationContext context;
+
+	private Semaphore handled;
+
+	@Setup
+	public void setup() {
+		context = new AnnotationConfigApplicationContext();
+		context.registerBean(SqsAsyncClient.class,
+				() -> new StubSqsAsyncClient(latencyMicros, Fixtures.ORDER_JSON, Fixtures.ATTRIBUTES));
+		context.registerBean(ObjectMapper.class);
+		context.registerBean(OrderListener.class);
+		context.register(QcatConfiguration.class);
+		context.refresh();
+		handled = context.getBean(OrderListener.class).handled;
+	}
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		handled.drainPermits();
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void process() throws InterruptedException {
+		handled.acquire(MESSAGES);
+	}
+
+	@Listen(Qcat4Sqs.PROVIDER)
+	public static class OrderListener {
+
+		private final Semaphore handled = new Semaphore(0);
+
+		@ListenTo(value = "https://stub.local/000000000000/in", min = 4, max = 32, polling = 1, waitTimeSeconds = 0)
+		@SendTo("https://stub.local/000000000000/out")
+		public Order order(@Payload Order order) {
+			handled.release();
+			return order;
+		}
+	}
+}
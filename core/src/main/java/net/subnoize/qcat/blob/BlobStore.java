@@ -0,0 +1,66 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.blob;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where message bodies too large for the queue are kept while the message
+ * carries only their key, the claim check. With a BlobStore bean in the context
+ * a provider puts oversized &#64;SendTo results here and the receiving listener
+ * gets them back before binding its payload. Object stores implement it with
+ * their async clients, FileSystemBlobStore covers a directory shared by
+ * producers and consumers.
+ * 
+ * <pre>
+ * <code>
+ * &#64;Bean
+ * public BlobStore blobStore() {
+ *   return new FileSystemBlobStore(Paths.get("/mnt/shared/qcat"));
+ * }
+ * </code>
+ * </pre>
+ * 
+ * @author John Bryant
+ *
+ */
+public interface BlobStore {
+
+	/**
+	 * Store a body under a new key
+	 * 
+	 * @param content the UTF-8 encoded body
+	 * @return the future of the key, no longer than a message body may be
+	 */
+	CompletableFuture<String> put(ByteBuffer content);
+
+	/**
+	 * @param key as returned by put, it comes out of a message so it can not be
+	 *            trusted
+	 * @return the future of the UTF-8 encoded body
+	 */
+	CompletableFuture<ByteBuffer> get(String key);
+
+	/**
+	 * Remove a body once its message has been handled
+	 * 
+	 * @param key
+	 * @return the future of the removal
+	 */
+	CompletableFuture<Void> delete(String key);
+}
@@ -0,0 +1,122 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.blob;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * A BlobStore on a directory, local or a network mount shared by the producers
+ * and consumers. Bodies are written to a temporary file and moved into place so
+ * a reader never sees half of one, and read by mapping the file into memory and
+ * decoding straight from the mapping, so a large body is not copied through a
+ * heap buffer on its way to the payload.
+ * 
+ * @author John Bryant
+ *
+ */
+public class FileSystemBlobStore implements BlobStore {
+
+	private static final Pattern KEY = Pattern.compile("[0-9a-f]{8}(-[0-9a-f]{4}){3}-[0-9a-f]{12}");
+
+	private static final String SUFFIX = ".blob";
+
+	private final Path directory;
+
+	/**
+	 * @param directory created if it does not exist
+	 */
+	public FileSystemBlobStore(Path directory) {
+		this.directory = directory;
+		try {
+			Files.createDirectories(directory);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to create blob directory " + directory, e);
+		}
+	}
+
+	@Override
+	public CompletableFuture<String> put(ByteBuffer content) {
+		String key = UUID.randomUUID().toString();
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(directory, key, ".tmp");
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while (content.hasRemaining()) {
+					channel.write(content);
+				}
+			}
+			Files.move(temp, resolve(key), StandardCopyOption.ATOMIC_MOVE);
+			return CompletableFuture.completedFuture(key);
+		} catch (IOException e) {
+			deleteQuietly(temp);
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	@Override
+	public CompletableFuture<ByteBuffer> get(String key) {
+		try (FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			return CompletableFuture.completedFuture(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException | IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> delete(String key) {
+		try {
+			Files.deleteIfExists(resolve(key));
+			return CompletableFuture.completedFuture(null);
+		} catch (IOException | IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private static void deleteQuietly(Path temp) {
+		if (temp != null) {
+			try {
+				Files.deleteIfExists(temp);
+			} catch (IOException e) {
+				// the original failure is the one worth reporting
+			}
+		}
+	}
+
+	/**
+	 * Only keys this store hands out resolve, anything else that arrives in a
+	 * message could point outside the directory
+	 * 
+	 * @param key
+	 * @return the file of the key
+	 */
+	private Path resolve(String key) {
+		if (key == null || !KEY.matcher(key).matches()) {
+			throw new IllegalArgumentException("Not a blob key: " + key);
+		}
+		return directory.resolve(key + SUFFIX);
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.codec;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Passes bytes through as they are, for payloads that are already serialized or
+ * not structured at all. Payloads and results are byte[] or ByteBuffer, the
+ * body is their base64 encoding.
+ * 
+ * @author John Bryant
+ *
+ */
+public class BytesPayloadCodec implements PayloadCodec {
+
+	@Override
+	public String getContentType() {
+		return OCTET_STREAM;
+	}
+
+	@Override
+	public Decoder decoder(Type type) {
+		if (byte[].class.equals(type)) {
+			return BytesPayloadCodec::decodeBase64;
+		} else if (ByteBuffer.class.equals(type)) {
+			return body -> ByteBuffer.wrap(decodeBase64(body));
+		}
+		throw new IllegalArgumentException(OCTET_STREAM + " payloads are byte[] or ByteBuffer, not " + type);
+	}
+
+	@Override
+	public Encoder encoder(Type type) {
+		return value -> {
+			ByteBuffer encoded;
+			if (value instanceof byte[]) {
+				encoded = Base64.getEncoder().encode(ByteBuffer.wrap((byte[]) value));
+			} else if (value instanceof ByteBuffer) {
+				// leave the caller's buffer where it was
+				encoded = Base64.getEncoder().encode(((ByteBuffer) value).duplicate());
+			} else {
+				throw new IOException(OCTET_STREAM + " results are byte[] or ByteBuffer, not " + value.getClass());
+			}
+			return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1);
+		};
+	}
+
+	private static byte[] decodeBase64(String body) throws IOException {
+		try {
+			return Base64.getDecoder().decode(body);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Body is not base64: " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.codec;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A PayloadCodec on a Jackson ObjectMapper. On a text format like JSON the
+ * body is the document itself, and Strings and numbers are bodies as they are
+ * rather than quoted JSON values. On a binary format like Smile or CBOR the
+ * body is the document base64 encoded.
+ * 
+ * @author John Bryant
+ *
+ */
+@Slf4j
+public class JacksonPayloadCodec implements PayloadCodec {
+
+	private final String contentType;
+
+	private final ObjectMapper mapper;
+
+	private final boolean binary;
+
+	/**
+	 * @param contentType
+	 * @param mapper      its factory decides the format
+	 */
+	public JacksonPayloadCodec(String contentType, ObjectMapper mapper) {
+		this.contentType = contentType;
+		this.mapper = mapper;
+		this.binary = mapper.getFactory().canHandleBinaryNatively();
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public Decoder decoder(Type type) {
+		JavaType javaType = mapper.constructType(type);
+		if (!binary && javaType.hasRawClass(String.class)) {
+			return body -> body;
+		}
+		if (!mapper.canDeserialize(javaType)) {
+			log.warn("No {} deserializer for payload {}", contentType, javaType);
+		}
+		ObjectReader reader = mapper.readerFor(javaType);
+		if (binary) {
+			return body -> reader.readValue(decodeBase64(body));
+		}
+		return reader::readValue;
+	}
+
+	@Override
+	public Encoder encoder(Type type) {
+		JavaType javaType = mapper.constructType(type);
+		if (!binary && (javaType.hasRawClass(String.class) || javaType.hasRawClass(Integer.class)
+				|| javaType.hasRawClass(Long.class) || javaType.hasRawClass(Float.class)
+				|| javaType.hasRawClass(Double.class))) {
+			return Object::toString;
+		}
+		ObjectWriter writer = compileWriter(javaType);
+		if (binary) {
+			return value -> new String(Base64.getEncoder().encode(writer.writeValueAsBytes(value)),
+					StandardCharsets.ISO_8859_1);
+		}
+		return writer::writeValueAsString;
+	}
+
+	/**
+	 * A writer for the type, resolved up front when the declared type tells the
+	 * whole story. Otherwise the runtime type decides, so the serializer of the
+	 * declared type is only warmed up.
+	 * 
+	 * @param type
+	 * @return the writer for results
+	 */
+	private ObjectWriter compileWriter(JavaType type) {
+		if (type.isFinal() || (type.isContainerType() && type.getContentType().isFinal())) {
+			return mapper.writerFor(type);
+		}
+		if (!mapper.canSerialize(type.getRawClass())) {
+			log.warn("No {} serializer for result {}", contentType, type);
+		}
+		return mapper.writer();
+	}
+
+	private static byte[] decodeBase64(String body) throws IOException {
+		try {
+			return Base64.getDecoder().decode(body);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Body is not base64: " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.codec;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Turns message bodies into payloads and results into message bodies. Message
+ * bodies are text, a codec of a binary format carries its bytes base64 encoded.
+ * A codec is known by its content type, which a listener names in
+ * ListenTo(codec) and a result in SendTo(codec). Messages sent with a codec
+ * other than JSON name it in the qcat.content-type message attribute, so a
+ * listener reads every message with the codec it was written with.
+ * <p>
+ * JSON and raw bytes are built in, Smile and CBOR too when their Jackson
+ * dataformat is on the classpath. PayloadCodec beans add to them or replace the
+ * built in one of the same content type.
+ * 
+ * <pre>
+ * <code>
+ * &#64;Bean
+ * public PayloadCodec smile() {
+ *   return new JacksonPayloadCodec(PayloadCodec.SMILE, new ObjectMapper(new SmileFactory()));
+ * }
+ * </code>
+ * </pre>
+ * 
+ * @author John Bryant
+ *
+ */
+public interface PayloadCodec {
+
+	String JSON = "application/json";
+
+	String SMILE = "application/x-jackson-smile";
+
+	String CBOR = "application/cbor";
+
+	String OCTET_STREAM = "application/octet-stream";
+
+	/**
+	 * @return the content type of the bodies this codec reads and writes
+	 */
+	String getContentType();
+
+	/**
+	 * Work out once how bodies are read into the given type
+	 * 
+	 * @param type the payload type
+	 * @return the decoder
+	 * @throws IllegalArgumentException if the codec can not produce the type
+	 */
+	Decoder decoder(Type type);
+
+	/**
+	 * Work out once how results of the given type are written
+	 * 
+	 * @param type the declared result type, the runtime type may be narrower
+	 * @return the encoder
+	 * @throws IllegalArgumentException if the codec can not write the type
+	 */
+	Encoder encoder(Type type);
+
+	@FunctionalInterface
+	interface Decoder {
+
+		/**
+		 * @param body
+		 * @return the payload
+		 * @throws IOException if the body is not in the codec's format
+		 */
+		Object decode(String body) throws IOException;
+	}
+
+	@FunctionalInterface
+	interface Encoder {
+
+		/**
+		 * @param value
+		 * @return the message body
+		 * @throws IOException if the value can not be written
+		 */
+		String encode(Object value) throws IOException;
+	}
+}
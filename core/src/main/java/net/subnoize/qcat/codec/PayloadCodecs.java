@@ -0,0 +1,123 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.codec;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.deser.DefaultDeserializationContext;
+import com.fasterxml.jackson.databind.ser.DefaultSerializerProvider;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The codecs a provider reads and writes payloads with, by content type
+ * 
+ * @author John Bryant
+ *
+ */
+@Slf4j
+public class PayloadCodecs {
+
+	/**
+	 * The message attribute naming the codec of a body, absent for JSON
+	 */
+	public static final String ATTRIBUTE = "qcat.content-type";
+
+	private static final String SMILE_FACTORY = "com.fasterxml.jackson.dataformat.smile.SmileFactory";
+
+	private static final String CBOR_FACTORY = "com.fasterxml.jackson.dataformat.cbor.CBORFactory";
+
+	private final Map<String, PayloadCodec> codecs = new HashMap<>();
+
+	/**
+	 * @param mapper the JSON mapper of the application
+	 * @param beans  the PayloadCodec beans, they win over the built in codecs
+	 */
+	public PayloadCodecs(ObjectMapper mapper, Stream<PayloadCodec> beans) {
+		add(new JacksonPayloadCodec(PayloadCodec.JSON, mapper));
+		add(new BytesPayloadCodec());
+		addBinary(PayloadCodec.SMILE, SMILE_FACTORY, mapper);
+		addBinary(PayloadCodec.CBOR, CBOR_FACTORY, mapper);
+		beans.forEach(this::add);
+	}
+
+	/**
+	 * @param contentType blank for JSON
+	 * @return the codec
+	 * @throws IllegalArgumentException if there is no codec of the content type
+	 */
+	public PayloadCodec get(String contentType) {
+		PayloadCodec codec = codecs.get(StringUtils.isBlank(contentType) ? PayloadCodec.JSON : contentType);
+		if (codec == null) {
+			throw new IllegalArgumentException("No PayloadCodec for content type " + contentType);
+		}
+		return codec;
+	}
+
+	private void add(PayloadCodec codec) {
+		codecs.put(codec.getContentType(), codec);
+	}
+
+	/**
+	 * The binary Jackson formats are optional dependencies, their codecs are only
+	 * made when the format is on the classpath. They write and read with the
+	 * configuration of the application's mapper.
+	 * 
+	 * @param contentType
+	 * @param factoryClass
+	 * @param mapper       the JSON mapper of the application
+	 */
+	private void addBinary(String contentType, String factoryClass, ObjectMapper mapper) {
+		try {
+			JsonFactory factory = (JsonFactory) Class.forName(factoryClass).getDeclaredConstructor().newInstance();
+			add(new JacksonPayloadCodec(contentType, withFactory(mapper, factory)));
+		} catch (ClassNotFoundException e) {
+			// not on the classpath
+		} catch (ReflectiveOperationException | LinkageError e) {
+			log.warn("Unable to set up the {} codec: {}", contentType, e.toString());
+		}
+	}
+
+	/**
+	 * A mapper on another format that keeps everything the application set up on
+	 * its mapper: features, naming, inclusion, mix-ins, the serializers and
+	 * deserializers of its modules and its injectable values. ObjectMapper.copy()
+	 * would keep the JSON factory and copyWith(JsonFactory) only comes with
+	 * Jackson 2.14, so the parts are carried over one by one.
+	 * 
+	 * @param mapper
+	 * @param factory
+	 * @return the mapper on the factory
+	 */
+	static ObjectMapper withFactory(ObjectMapper mapper, JsonFactory factory) {
+		ObjectMapper copy = new ObjectMapper(factory,
+				((DefaultSerializerProvider) mapper.getSerializerProvider()).copy(),
+				((DefaultDeserializationContext) mapper.getDeserializationContext()).copy());
+		copy.setSerializerFactory(mapper.getSerializerFactory());
+		copy.setConfig(mapper.getSerializationConfig());
+		copy.setConfig(mapper.getDeserializationConfig());
+		copy.setInjectableValues(mapper.getInjectableValues());
+		return copy;
+	}
+}
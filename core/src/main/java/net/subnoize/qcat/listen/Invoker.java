@@ -0,0 +1,209 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.listen;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A call of a listener method on its bean with the arguments already bound.
+ * Providers get theirs from {@link #create(Method, Object)} once per listener.
+ * <p>
+ * {@link #generate(Method, Object)} spins an implementation through the
+ * LambdaMetafactory, the same way the compiler wires up a method reference, so
+ * the call is a plain interface call the JIT can inline. Methods it cannot
+ * handle can still be bound to a MethodHandle with
+ * {@link #bind(Method, Object)}.
+ *
+ * @author John Bryant
+ *
+ */
+@FunctionalInterface
+public interface Invoker {
+
+	/**
+	 * @param args
+	 * @return the return value of the method, null for void methods
+	 * @throws Throwable whatever the method throws, as it is
+	 */
+	Object invoke(Object[] args) throws Throwable;
+
+	/**
+	 * The fastest invoker the method allows: generated, or failing that bound to a
+	 * MethodHandle, or failing that plain reflection. Called once per listener,
+	 * so a fallback is logged once per listener too.
+	 *
+	 * @param method
+	 * @param target
+	 * @return the invoker
+	 */
+	static Invoker create(Method method, Object target) {
+		Logger log = LoggerFactory.getLogger(Invoker.class);
+		Invoker invoker = null;
+		try {
+			invoker = generate(method, target);
+			if (invoker == null) {
+				log.info("No generated invoker for static or more than four parameter {}.{}, using a MethodHandle",
+						method.getDeclaringClass().getName(), method.getName());
+			}
+		} catch (Throwable t) {
+			log.warn("Unable to generate invoker for {}.{}, falling back to a MethodHandle: {}",
+					method.getDeclaringClass().getName(), method.getName(), t.toString());
+		}
+		if (invoker == null) {
+			try {
+				invoker = bind(method, target);
+			} catch (RuntimeException | IllegalAccessException e) {
+				log.warn("Unable to bind {}.{}, falling back to reflection: {}", method.getDeclaringClass().getName(),
+						method.getName(), e.getMessage());
+				invoker = reflect(method, target);
+			}
+		}
+		return invoker;
+	}
+
+	/**
+	 * Generate an invoker for an instance method of up to four parameters
+	 *
+	 * @param method
+	 * @param target
+	 * @return the invoker or null if the method is static or has too many
+	 *         parameters
+	 * @throws Throwable if the lambda could not be created
+	 */
+	static Invoker generate(Method method, Object target) throws Throwable {
+		int arity = method.getParameterCount();
+		if (Modifier.isStatic(method.getModifiers()) || arity > 4) {
+			return null;
+		}
+		boolean procedure = method.getReturnType() == void.class;
+		Class<?> shape = procedure ? InvokerShapes.PROCEDURES[arity] : InvokerShapes.FUNCTIONS[arity];
+
+		MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(),
+				MethodHandles.lookup());
+		MethodHandle impl = lookup.unreflect(method);
+		MethodType erased = MethodType.genericMethodType(arity + 1);
+		MethodType instantiated = impl.type().wrap();
+		if (procedure) {
+			erased = erased.changeReturnType(void.class);
+			instantiated = instantiated.changeReturnType(void.class);
+		}
+		CallSite site = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(shape), erased, impl,
+				instantiated);
+		Object fn = site.getTarget().invoke();
+
+		return procedure ? procedure(fn, arity, target) : function(fn, arity, target);
+	}
+
+	private static Invoker function(Object fn, int arity, Object target) {
+		if (arity == 0) {
+			InvokerShapes.F0 f = (InvokerShapes.F0) fn;
+			return args -> f.apply(target);
+		} else if (arity == 1) {
+			InvokerShapes.F1 f = (InvokerShapes.F1) fn;
+			return args -> f.apply(target, args[0]);
+		} else if (arity == 2) {
+			InvokerShapes.F2 f = (InvokerShapes.F2) fn;
+			return args -> f.apply(target, args[0], args[1]);
+		} else if (arity == 3) {
+			InvokerShapes.F3 f = (InvokerShapes.F3) fn;
+			return args -> f.apply(target, args[0], args[1], args[2]);
+		}
+		InvokerShapes.F4 f = (InvokerShapes.F4) fn;
+		return args -> f.apply(target, args[0], args[1], args[2], args[3]);
+	}
+
+	private static Invoker procedure(Object fn, int arity, Object target) {
+		if (arity == 0) {
+			InvokerShapes.P0 p = (InvokerShapes.P0) fn;
+			return args -> {
+				p.apply(target);
+				return null;
+			};
+		} else if (arity == 1) {
+			InvokerShapes.P1 p = (InvokerShapes.P1) fn;
+			return args -> {
+				p.apply(target, args[0]);
+				return null;
+			};
+		} else if (arity == 2) {
+			InvokerShapes.P2 p = (InvokerShapes.P2) fn;
+			return args -> {
+				p.apply(target, args[0], args[1]);
+				return null;
+			};
+		} else if (arity == 3) {
+			InvokerShapes.P3 p = (InvokerShapes.P3) fn;
+			return args -> {
+				p.apply(target, args[0], args[1], args[2]);
+				return null;
+			};
+		}
+		InvokerShapes.P4 p = (InvokerShapes.P4) fn;
+		return args -> {
+			p.apply(target, args[0], args[1], args[2], args[3]);
+			return null;
+		};
+	}
+
+	/**
+	 * Bind any method to a MethodHandle of the shape (Object[])Object
+	 *
+	 * @param method
+	 * @param target
+	 * @return the invoker
+	 * @throws IllegalAccessException
+	 */
+	static Invoker bind(Method method, Object target) throws IllegalAccessException {
+		method.setAccessible(true);
+		MethodHandle mh = MethodHandles.lookup().unreflect(method);
+		if (!Modifier.isStatic(method.getModifiers())) {
+			mh = mh.bindTo(target);
+		}
+		MethodHandle spread = mh.asSpreader(Object[].class, method.getParameterCount())
+				.asType(MethodType.methodType(Object.class, Object[].class));
+		return args -> (Object) spread.invokeExact(args);
+	}
+
+	/**
+	 * Call the method through reflection, throwing what the method throws rather
+	 * than an InvocationTargetException like the other invokers
+	 *
+	 * @param method
+	 * @param target
+	 * @return the invoker
+	 */
+	static Invoker reflect(Method method, Object target) {
+		method.setAccessible(true);
+		return args -> {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		};
+	}
+}
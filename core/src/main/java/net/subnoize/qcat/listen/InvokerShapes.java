@@ -0,0 +1,81 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.listen;
+
+/**
+ * The shapes the LambdaMetafactory implements for {@link Invoker#generate}, one
+ * per arity for methods with and without a return value. Not API, they may
+ * change with any release.
+ * <p>
+ * The generated classes live next to the listener beans, in their packages, so
+ * the interfaces themselves have to be public. This holder is not, which keeps
+ * them out of reach of application code.
+ *
+ * @author John Bryant
+ *
+ */
+final class InvokerShapes {
+
+	static final Class<?>[] FUNCTIONS = { F0.class, F1.class, F2.class, F3.class, F4.class };
+
+	static final Class<?>[] PROCEDURES = { P0.class, P1.class, P2.class, P3.class, P4.class };
+
+	private InvokerShapes() {
+		super();
+	}
+
+	public interface F0 {
+		Object apply(Object t);
+	}
+
+	public interface F1 {
+		Object apply(Object t, Object a);
+	}
+
+	public interface F2 {
+		Object apply(Object t, Object a, Object b);
+	}
+
+	public interface F3 {
+		Object apply(Object t, Object a, Object b, Object c);
+	}
+
+	public interface F4 {
+		Object apply(Object t, Object a, Object b, Object c, Object d);
+	}
+
+	public interface P0 {
+		void apply(Object t);
+	}
+
+	public interface P1 {
+		void apply(Object t, Object a);
+	}
+
+	public interface P2 {
+		void apply(Object t, Object a, Object b);
+	}
+
+	public interface P3 {
+		void apply(Object t, Object a, Object b, Object c);
+	}
+
+	public interface P4 {
+		void apply(Object t, Object a, Object b, Object c, Object d);
+	}
+}
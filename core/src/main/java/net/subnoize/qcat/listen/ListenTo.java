@@ -47,44 +47,138 @@ import java.lang.annotation.Target;
 public @interface ListenTo {
 
 	/**
-	 * The Queue name to listen too.
+	 * The Queue name to listen too. Use queues() to listen to several.
 	 * 
 	 * @return the queue name
 	 */
-	String value();
+	String value() default "";
 
 	/**
-	 * Minimum threads used for listening to this queue. Default is 1.
+	 * Several queues for one handler to listen to on the same threads, in order of
+	 * priority unless queueWeights() says otherwise, after the queue of value() if
+	 * that is set too. Acknowledgements and visibility changes go to the queue a
+	 * message came from.
+	 * 
+	 * @return the queue names, highest priority first
+	 */
+	String[] queues() default {};
+
+	/**
+	 * How the receives are shared out between the queues of value() and queues(),
+	 * one weight per queue. A queue with weight 3 is received from three times as often as
+	 * one with weight 1 while both have messages. Empty, the default, is strict
+	 * priority: a queue is only received from while the ones before it come back
+	 * empty, and only with the capacity they leave spare.
+	 * 
+	 * @return the relative weight of each queue
+	 */
+	int[] queueWeights() default {};
+
+	/**
+	 * Minimum threads used for listening to this queue. On the
+	 * qcat.sqs.shared-threads pool it is a priority rather than a reservation: a
+	 * listener running fewer handlers than its min is served first when a thread
+	 * comes free. Default is 1.
 	 * 
 	 * @return the minimum active threads
 	 */
 	int min() default 1;
 
 	/**
-	 * Maximum threads used for listening to this queue. Default is 1 and is
-	 * probably NOT production ready.
+	 * Maximum threads used for handling messages from this queue. Receives do not
+	 * hold a thread while they are open so this caps the handler concurrency.
+	 * Default is 1 and is probably NOT production ready.
 	 * 
 	 * @return the maximum thread count
 	 */
 	int max() default 1;
 
 	/**
-	 * The timeout value for the listener
+	 * The longest time a message is kept from being redelivered while its handler
+	 * is still running. Until then the Provider keeps extending the visibility of
+	 * the message, so the visibility timeout can stay short for fast retries.
+	 * Default is 0 which leaves the message to its visibility timeout alone.
 	 * 
 	 * @return the timeout value in milliseconds
 	 */
 	long timeout() default 0;
 
 	/**
-	 * The polling is the manager thread wake period. This can bet turned to reduce
-	 * CPU or increase recycling of worker threads. Be careful as a lower number
-	 * doesn't mean faster recycling as the runtime for the threads will almost
-	 * always be longer that teh poll time.
+	 * How long to wait before receiving again after a receive failed or, with
+	 * short polling, came back empty. Otherwise the next receive starts as soon as
+	 * a receive comes back or a message is done with and the concurrency allows
+	 * it, there is no manager loop to wait for.
 	 * 
 	 * @return the long value for the polling interval in milliseconds
 	 */
 	long polling() default 10;
 
+	/**
+	 * How long in seconds a receive waits on the server for messages to arrive
+	 * (long polling), from 0 to 20. Messages are returned as soon as they arrive so
+	 * the wait saves the empty receives of an idle queue, but a shutdown waits
+	 * up to this long for the open receives to come back. Default is 0, short
+	 * polling every polling() milliseconds while the queue is empty.
+	 * 
+	 * @return the receive wait time in seconds
+	 */
+	int waitTimeSeconds() default 0;
+
+	/**
+	 * The visibility timeout in seconds requested for received messages. Default
+	 * is -1 which keeps the timeout configured on the queue.
+	 * 
+	 * @return the visibility timeout in seconds
+	 */
+	int visibilityTimeout() default -1;
+
+	/**
+	 * The most received messages kept in a local buffer ahead of the handlers.
+	 * Receives then run ahead of the handling, so the handlers do not wait on the
+	 * network, while messages that sat in the buffer for most of their visibility
+	 * timeout are given back to the queue unhandled. Default is 0, no buffer.
+	 * 
+	 * @return the size of the prefetch buffer
+	 */
+	int prefetch() default 0;
+
+	/**
+	 * The most messages handed to the listener in one call. Above 0 the method
+	 * takes a List for every parameter, one element per message: List&lt;T&gt; for
+	 * the payloads, List&lt;Session&gt; for per message acknowledgement and
+	 * &#64;Attribute List&lt;String&gt; for attributes. If it returns normally the
+	 * whole batch is acknowledged, unless a Session says otherwise, and a returned
+	 * Collection is sent as one message per element to the destination, and with
+	 * the attributes, of the first Session. Messages that can not be read are left
+	 * out of the Lists and, as with one message per call, logged and acknowledged
+	 * with the batch. If it throws, none of the batch is acknowledged. Batches
+	 * larger than a single receive are gathered in the prefetch buffer. Default is
+	 * 0, one message per call.
+	 * 
+	 * @return the largest batch
+	 */
+	int batch() default 0;
+
+	/**
+	 * The share of the threads this listener gets against the others when they all
+	 * run on the qcat.sqs.shared-threads pool, after the listeners below their min
+	 * which go first. A listener of pool weight 2 gets twice the threads of one
+	 * with pool weight 1 while both have messages waiting. Ignored without a shared
+	 * pool. Default is 1.
+	 * 
+	 * @return the relative weight in the shared pool
+	 */
+	int poolWeight() default 1;
+
+	/**
+	 * The threading used to handle messages. Default leaves it to the Provider,
+	 * VIRTUAL runs every message on its own virtual thread which suits handlers
+	 * that mostly block on I/O.
+	 * 
+	 * @return the thread mode
+	 */
+	ThreadMode threads() default ThreadMode.DEFAULT;
+
 	/**
 	 * This parameter governs the ability to auto-acknowledge messages by defaulting
 	 * to true. Set this to false to handle and then in the listener methods you can
@@ -102,4 +196,12 @@ public @interface ListenTo {
 	 * @return the name of the attribute that contains the transaction ID
 	 */
 	String transactionId() default "";
+
+	/**
+	 * The content type of the PayloadCodec that reads the payload of messages that
+	 * do not name one in their qcat.content-type attribute. Default is JSON.
+	 * 
+	 * @return the content type
+	 */
+	String codec() default "";
 }
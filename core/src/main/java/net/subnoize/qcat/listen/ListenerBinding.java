@@ -0,0 +1,445 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.listen;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.MDC;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.subnoize.qcat.Session;
+import net.subnoize.qcat.codec.PayloadCodec;
+import net.subnoize.qcat.codec.PayloadCodecs;
+import net.subnoize.qcat.model.Attribute;
+import net.subnoize.qcat.model.Payload;
+import net.subnoize.qcat.send.SendTo;
+
+/**
+ * How the arguments of a listener method are made from a message, worked out
+ * once at startup. Every provider binds through one of these, so a listener
+ * gets the same arguments whichever provider delivers its messages. A provider
+ * only describes its messages with a {@link MessageAccess}.
+ * <p>
+ * A method with one parameter takes the payload there, otherwise in the
+ * parameter marked &#64;Payload. The payload is read with the codec of
+ * &#64;ListenTo(codec) unless the message names another in its
+ * qcat.content-type attribute. &#64;Attribute parameters take the message
+ * attribute of their name, converted to the parameter type when it is not one
+ * already. Session and message type parameters take the Session and the message
+ * itself. A batch listener takes a List of each per call.
+ *
+ * @author John Bryant
+ *
+ * @param <M> the message type of the provider
+ */
+@Slf4j
+public class ListenerBinding<M> {
+
+	/**
+	 * What a binding reads from the messages of a provider
+	 *
+	 * @param <M> the message type of the provider
+	 */
+	public interface MessageAccess<M> {
+
+		/**
+		 * @param message
+		 * @return the body as it came
+		 */
+		String body(M message);
+
+		/**
+		 * @param message
+		 * @param name
+		 * @return the value of the attribute as a String, Number or byte[], or null
+		 *         if the message does not have it
+		 */
+		Object attribute(M message, String name);
+
+		/**
+		 * @param message
+		 * @return the id the message is logged with
+		 */
+		String messageId(M message);
+	}
+
+	private final Method method;
+
+	private final ListenTo to;
+
+	private final Class<M> messageType;
+
+	private final MessageAccess<M> access;
+
+	private final ObjectMapper mapper;
+
+	private final PayloadCodecs codecs;
+
+	private final Runnable readFailed;
+
+	@Getter
+	private final PayloadCodec codec;
+
+	/**
+	 * The codec of the SendTo, null without one
+	 */
+	@Getter
+	private final PayloadCodec resultCodec;
+
+	private final PayloadCodec.Encoder resultEncoder;
+
+	/**
+	 * The attributes the listener reads, the transaction ID and the content type
+	 * included, for providers that have to ask for them
+	 */
+	@Getter
+	private final List<String> attributeNames = new ArrayList<>();
+
+	private final String transactionId;
+
+	private final ParameterResolver<M>[] resolvers;
+
+	/**
+	 * @param method      the listener method, annotated with ListenTo
+	 * @param messageType the class of the provider's messages, parameters of it
+	 *                    take the message
+	 * @param access      how to read the messages
+	 * @param mapper      converts attributes to the parameter types
+	 * @param codecs      the codecs of the provider
+	 * @param readFailed  called whenever a payload can not be read, after its
+	 *                    Session is flagged, may be null
+	 */
+	public ListenerBinding(Method method, Class<M> messageType, MessageAccess<M> access, ObjectMapper mapper,
+			PayloadCodecs codecs, Runnable readFailed) {
+		this.method = method;
+		this.to = method.getAnnotation(ListenTo.class);
+		this.messageType = messageType;
+		this.access = access;
+		this.mapper = mapper;
+		this.codecs = codecs;
+		this.readFailed = readFailed;
+		this.codec = codecs.get(to.codec());
+
+		Parameter[] parameters = method.getParameters();
+		Parameter payload = null;
+		if (parameters.length == 1) {
+			payload = parameters[0];
+		} else {
+			for (Parameter p : parameters) {
+				if (p.isAnnotationPresent(Payload.class) && payload == null) {
+					payload = p;
+				} else if (p.isAnnotationPresent(Attribute.class)) {
+					addAttributeName(p.getAnnotation(Attribute.class).value());
+				}
+			}
+		}
+
+		// a batch listener takes a List for every parameter, its resolvers produce
+		// the elements
+		resolvers = newResolvers(parameters.length);
+		for (int i = 0; i < parameters.length; i++) {
+			Type type = parameters[i].getParameterizedType();
+			if (isBatch()) {
+				type = getElementType(type);
+				if (type == null) {
+					log.warn("Parameter {} of batch listener {}.{} is not a List, it is left null",
+							parameters[i].getName(), method.getDeclaringClass().getName(), method.getName());
+					resolvers[i] = ParameterResolver.none();
+					continue;
+				}
+			}
+			resolvers[i] = compileResolver(parameters[i], type, parameters[i].equals(payload));
+		}
+
+		if (method.isAnnotationPresent(SendTo.class)) {
+			resultCodec = codecs.get(method.getAnnotation(SendTo.class).codec());
+			resultEncoder = resultCodec.encoder(getResultType());
+		} else {
+			resultCodec = null;
+			resultEncoder = null;
+		}
+
+		if (StringUtils.isNotBlank(to.transactionId())) {
+			transactionId = to.transactionId();
+			addAttributeName(transactionId);
+		} else {
+			transactionId = null;
+		}
+		addAttributeName(PayloadCodecs.ATTRIBUTE);
+	}
+
+	/**
+	 * @param message
+	 * @param destination the SendTo, may be null
+	 * @return a new Session for the message as the ListenTo asks
+	 */
+	public Session<M> newSession(M message, String destination) {
+		Session<M> session = new Session<>();
+		session.setAcknowledge(to.acknowledge());
+		session.setError(false);
+		session.setErrorCode(-1);
+		session.setErrorDescription(null);
+		session.setDestination(destination);
+		session.setRequest(message);
+		return session;
+	}
+
+	/**
+	 * Bind a message to the arguments of the listener method. A transaction ID
+	 * found on the message is put in the MDC and the Session attributes.
+	 *
+	 * @param session
+	 * @return the arguments
+	 */
+	public Object[] bind(Session<M> session) {
+		Object[] params = new Object[resolvers.length];
+		for (int i = 0; i < params.length; i++) {
+			params[i] = resolvers[i].resolve(session);
+		}
+		if (transactionId != null) {
+			String id = bindTransactionId(session);
+			if (id != null) {
+				MDC.put(transactionId, id);
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * Bind a batch of messages to the arguments of a batch listener, every
+	 * argument a List with an element per message. Messages whose payload can not
+	 * be read are flagged on their Session and left out of all the Lists. The
+	 * transaction IDs of the bound messages go in the MDC joined by commas.
+	 *
+	 * @param sessions
+	 * @return the arguments
+	 */
+	public Object[] bindBatch(List<Session<M>> sessions) {
+		List<Object>[] lists = newLists(resolvers.length, sessions.size());
+		List<String> ids = transactionId != null ? new ArrayList<>(sessions.size()) : null;
+		Object[] row = new Object[resolvers.length];
+		for (Session<M> session : sessions) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] = resolvers[i].resolve(session);
+			}
+			if (session.isError()) {
+				continue;
+			}
+			if (transactionId != null) {
+				String id = bindTransactionId(session);
+				if (id != null) {
+					ids.add(id);
+				}
+			}
+			for (int i = 0; i < row.length; i++) {
+				if (lists[i] != null) {
+					lists[i].add(row[i]);
+				}
+			}
+		}
+		if (ids != null && !ids.isEmpty()) {
+			MDC.put(transactionId, String.join(",", ids));
+		}
+		Object[] params = new Object[resolvers.length];
+		System.arraycopy(lists, 0, params, 0, lists.length);
+		return params;
+	}
+
+	/**
+	 * Encode a listener result as a message body with the codec of the SendTo
+	 *
+	 * @param ret for a batch listener one element of what it returned
+	 * @return the message body
+	 * @throws IOException
+	 */
+	public String encode(Object ret) throws IOException {
+		if (resultEncoder == null) {
+			throw new IllegalStateException("No SendTo on " + method.getDeclaringClass().getName() + "."
+					+ method.getName());
+		}
+		return resultEncoder.encode(ret);
+	}
+
+	/**
+	 * @return true if the listener takes a batch of messages per call
+	 */
+	public boolean isBatch() {
+		return to.batch() > 0;
+	}
+
+	private void addAttributeName(String name) {
+		if (!attributeNames.contains(name)) {
+			attributeNames.add(name);
+		}
+	}
+
+	private ParameterResolver<M> compileResolver(Parameter p, Type parameterType, boolean payload) {
+		// the full generic type so List<Order> and friends bind properly
+		JavaType type = mapper.constructType(parameterType);
+		if (type.hasRawClass(Session.class)) {
+			return session -> session;
+		} else if (type.hasRawClass(messageType)) {
+			return Session::getRequest;
+		} else if (payload) {
+			return compilePayloadResolver(parameterType);
+		} else if (p.isAnnotationPresent(Attribute.class)) {
+			return compileAttributeResolver(p.getAnnotation(Attribute.class).value(), type);
+		}
+		return ParameterResolver.none();
+	}
+
+	/**
+	 * The decoders of codecs other than the listener's are worked out the first
+	 * time a message needs them.
+	 *
+	 * @param type
+	 * @return the resolver of the payload
+	 */
+	private ParameterResolver<M> compilePayloadResolver(Type type) {
+		PayloadCodec.Decoder decoder = codec.decoder(type);
+		Map<String, PayloadCodec.Decoder> decoders = new ConcurrentHashMap<>();
+		decoders.put(codec.getContentType(), decoder);
+		return session -> {
+			Object contentType = access.attribute(session.getRequest(), PayloadCodecs.ATTRIBUTE);
+			if (contentType == null) {
+				return readPayload(session, decoder);
+			}
+			try {
+				return readPayload(session,
+						decoders.computeIfAbsent(contentType.toString(), ct -> codecs.get(ct).decoder(type)));
+			} catch (IllegalArgumentException e) {
+				fail(session, e.getMessage());
+				log.error("Error reading message: {} Exception: {}", access.messageId(session.getRequest()),
+						e.getMessage());
+				return null;
+			}
+		};
+	}
+
+	private ParameterResolver<M> compileAttributeResolver(String name, JavaType type) {
+		return session -> {
+			Object v = access.attribute(session.getRequest(), name);
+			if (v == null || type.getRawClass().isInstance(v)) {
+				return v;
+			} else if (type.hasRawClass(String.class) && !(v instanceof byte[])) {
+				return v.toString();
+			}
+			try {
+				return mapper.convertValue(v, type);
+			} catch (IllegalArgumentException e) {
+				fail(session, e.getMessage());
+				log.error("Error converting attribute {} of message: {} Exception: {}", name,
+						access.messageId(session.getRequest()), e.getMessage());
+				return null;
+			}
+		};
+	}
+
+	private Object readPayload(Session<M> session, PayloadCodec.Decoder decoder) {
+		String body = access.body(session.getRequest());
+		try {
+			return decoder.decode(body);
+		} catch (IOException e) {
+			fail(session, e.getMessage());
+			log.error("Error parsing object: {} Exception: {}", body, e.getMessage());
+			return null;
+		}
+	}
+
+	private void fail(Session<M> session, String description) {
+		session.setError(true);
+		session.setErrorCode(500);
+		session.setErrorDescription(description);
+		if (readFailed != null) {
+			readFailed.run();
+		}
+	}
+
+	/**
+	 * Put the transaction ID of the message in the Session attributes
+	 *
+	 * @param session
+	 * @return the transaction ID for the MDC, null if the message has none
+	 */
+	private String bindTransactionId(Session<M> session) {
+		Object v = access.attribute(session.getRequest(), transactionId);
+		if (v == null) {
+			return null;
+		}
+		session.getAttributes().put(transactionId, v);
+		return v instanceof byte[] ? null : v.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <M> ParameterResolver<M>[] newResolvers(int count) {
+		return new ParameterResolver[count];
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Object>[] newLists(int count, int size) {
+		List<Object>[] lists = new List[count];
+		for (int i = 0; i < count; i++) {
+			if (resolvers[i] != ParameterResolver.NULL) {
+				lists[i] = new ArrayList<>(size);
+			}
+		}
+		return lists;
+	}
+
+	/**
+	 * @return what one message sent for a result is made from, for a batch
+	 *         listener the element of the returned collection
+	 */
+	private Type getResultType() {
+		Type type = method.getGenericReturnType();
+		if (isBatch()) {
+			Type element = getElementType(type);
+			return element != null ? element : type;
+		}
+		return type;
+	}
+
+	/**
+	 * @param type
+	 * @return the element type of a List or Collection type, or null for anything
+	 *         else
+	 */
+	private static Type getElementType(Type type) {
+		if (type instanceof ParameterizedType) {
+			ParameterizedType pt = (ParameterizedType) type;
+			if (pt.getRawType() instanceof Class && Collection.class.isAssignableFrom((Class<?>) pt.getRawType())) {
+				return pt.getActualTypeArguments()[0];
+			}
+		}
+		return null;
+	}
+}
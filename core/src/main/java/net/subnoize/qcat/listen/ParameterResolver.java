@@ -0,0 +1,46 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.listen;
+
+import net.subnoize.qcat.Session;
+
+/**
+ * Produces the argument for one listener method parameter from the Session of
+ * the message being handled. Providers compile one per parameter at startup.
+ *
+ * @author John Bryant
+ *
+ */
+@FunctionalInterface
+public interface ParameterResolver<M> {
+
+	@SuppressWarnings("rawtypes")
+	ParameterResolver NULL = session -> null;
+
+	/**
+	 * @param <M>
+	 * @return the resolver of parameters that are left null, always the same one
+	 *         so it can be told apart
+	 */
+	@SuppressWarnings("unchecked")
+	static <M> ParameterResolver<M> none() {
+		return NULL;
+	}
+
+	Object resolve(Session<M> session);
+
+}
@@ -0,0 +1,42 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.listen;
+
+/**
+ * How a listener runs the handling of its messages.
+ * 
+ * @author John Bryant
+ *
+ */
+public enum ThreadMode {
+
+	/**
+	 * Use whatever the Provider is configured for
+	 */
+	DEFAULT,
+
+	/**
+	 * A pool of platform threads sized by the min and max of the listener
+	 */
+	PLATFORM,
+
+	/**
+	 * A virtual thread per message with max as the concurrency limit. Needs a Java
+	 * 21 or later runtime, older runtimes fall back to PLATFORM.
+	 */
+	VIRTUAL
+}
@@ -0,0 +1,44 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.send;
+
+/**
+ * How the body of a sent message is compressed. A compressed body is sent base64
+ * encoded with the name of the compression in a message attribute, which is
+ * how the receiving listener knows to decompress it. Bodies that would not come
+ * out smaller are sent as they are.
+ * 
+ * @author John Bryant
+ *
+ */
+public enum Compression {
+
+	/**
+	 * Send the body as it is
+	 */
+	NONE,
+
+	/**
+	 * GZIP format, readable by anything that reads .gz files
+	 */
+	GZIP,
+
+	/**
+	 * ZLIB wrapped deflate, a few bytes smaller than GZIP
+	 */
+	DEFLATE
+}
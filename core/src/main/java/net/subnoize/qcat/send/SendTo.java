@@ -54,4 +54,23 @@ public @interface SendTo {
 	 * @return
 	 */
 	String value() default "";
+
+	/**
+	 * Compress the message body, worth it for large JSON results that would
+	 * otherwise spend most of their time on the network or run into the message
+	 * size limit. Listeners decompress such messages by themselves. Default is
+	 * NONE.
+	 * 
+	 * @return the compression
+	 */
+	Compression compression() default Compression.NONE;
+
+	/**
+	 * The content type of the PayloadCodec that writes the return value, named in
+	 * the qcat.content-type attribute of the message unless it is JSON. Default
+	 * is JSON.
+	 * 
+	 * @return the content type
+	 */
+	String codec() default "";
 }
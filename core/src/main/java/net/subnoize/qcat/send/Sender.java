@@ -0,0 +1,90 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.send;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.lang3.StringUtils;
+
+import net.subnoize.qcat.codec.PayloadCodec;
+
+/**
+ * Sends messages from anywhere in the application, not just as the return value
+ * of a SendTo method. Every provider that can send names its Sender bean, so
+ * inject it by name when there is more than one provider.
+ *
+ * <pre>
+ * <code>
+ * &#64;Autowired
+ * private Sender sender;
+ *
+ * public CompletableFuture&lt;String&gt; placeOrder(Order order) {
+ *   return sender.send("orders", order, Map.of("tenant", order.getTenant()));
+ * }
+ * </code>
+ * </pre>
+ *
+ * @author John Bryant
+ *
+ */
+public interface Sender {
+
+	/**
+	 * Send a payload, serialized the same way as a SendTo return value
+	 *
+	 * @param destination the queue name or URL
+	 * @param payload
+	 * @return the future of the message ID
+	 */
+	default CompletableFuture<String> send(String destination, Object payload) {
+		return send(destination, payload, null);
+	}
+
+	/**
+	 * Send a payload, serialized the same way as a SendTo return value, with
+	 * message attributes
+	 *
+	 * @param destination the queue name or URL
+	 * @param payload
+	 * @param attributes  String, Number or byte[] values, may be null
+	 * @return the future of the message ID
+	 */
+	CompletableFuture<String> send(String destination, Object payload, Map<String, Object> attributes);
+
+	/**
+	 * Send a payload written by the PayloadCodec of a content type and compressed,
+	 * the same way as a SendTo return value with SendTo(codec) and
+	 * SendTo(compression). Providers that can only send JSON as it is fail the
+	 * future for anything else.
+	 *
+	 * @param destination the queue name or URL
+	 * @param payload
+	 * @param attributes  String, Number or byte[] values, may be null
+	 * @param codec       the content type of the codec, blank for JSON
+	 * @param compression
+	 * @return the future of the message ID
+	 */
+	default CompletableFuture<String> send(String destination, Object payload, Map<String, Object> attributes,
+			String codec, Compression compression) {
+		if ((StringUtils.isBlank(codec) || PayloadCodec.JSON.equals(codec)) && compression == Compression.NONE) {
+			return send(destination, payload, attributes);
+		}
+		return CompletableFuture.failedFuture(new UnsupportedOperationException(
+				getClass().getName() + " can not send with codec " + codec + " and compression " + compression));
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.blob;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author John Bryant
+ *
+ */
+class FileSystemBlobStoreTest {
+
+	@TempDir
+	Path root;
+
+	@Test
+	void storesAndDeletes() throws Exception {
+		FileSystemBlobStore store = new FileSystemBlobStore(root.resolve("blobs"));
+		String key = store.put(ByteBuffer.wrap("body".getBytes(StandardCharsets.UTF_8))).get();
+
+		assertEquals("body", StandardCharsets.UTF_8.decode(store.get(key).get()).toString());
+
+		store.delete(key).get();
+		assertThrows(ExecutionException.class, () -> store.get(key).get());
+	}
+
+	@Test
+	void rejectsKeysItDidNotHandOut() {
+		FileSystemBlobStore store = new FileSystemBlobStore(root);
+
+		for (String key : new String[] { null, "", "orders", UUID.randomUUID().toString().toUpperCase(),
+				UUID.randomUUID() + ".blob" }) {
+			assertIllegal(() -> store.get(key).get());
+			assertIllegal(() -> store.delete(key).get());
+		}
+	}
+
+	@Test
+	void keysCanNotLeaveTheDirectory() throws Exception {
+		Path outside = Files.writeString(root.resolve(UUID.randomUUID() + ".blob"), "secret");
+		FileSystemBlobStore store = new FileSystemBlobStore(root.resolve("blobs"));
+		String name = outside.getFileName().toString().replace(".blob", "");
+
+		assertIllegal(() -> store.get("../" + name).get());
+		assertIllegal(() -> store.delete("../" + name).get());
+		assertIllegal(() -> store.delete(outside.toString().replace(".blob", "")).get());
+		assertTrue(Files.exists(outside));
+	}
+
+	@Test
+	void leavesNoTemporaryFiles() throws Exception {
+		FileSystemBlobStore store = new FileSystemBlobStore(root);
+		String key = store.put(ByteBuffer.allocate(1024)).get();
+
+		try (Stream<Path> files = Files.list(root)) {
+			assertEquals(List.of(key + ".blob"),
+					files.map(p -> p.getFileName().toString()).collect(Collectors.toList()));
+		}
+	}
+
+	private static void assertIllegal(Executable get) {
+		ExecutionException e = assertThrows(ExecutionException.class, get);
+		assertTrue(e.getCause() instanceof IllegalArgumentException, e.getCause().toString());
+	}
+}
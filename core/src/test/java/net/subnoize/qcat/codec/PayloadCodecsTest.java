@@ -0,0 +1,129 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * @author John Bryant
+ *
+ */
+class PayloadCodecsTest {
+
+	private final PayloadCodecs codecs = new PayloadCodecs(applicationMapper(), Stream.empty());
+
+	@Test
+	void smileRoundTripsWithTheApplicationsMapper() throws IOException {
+		roundTrip(PayloadCodec.SMILE, new SmileFactory());
+	}
+
+	@Test
+	void cborRoundTripsWithTheApplicationsMapper() throws IOException {
+		roundTrip(PayloadCodec.CBOR, new CBORFactory());
+	}
+
+	private void roundTrip(String contentType, JsonFactory factory) throws IOException {
+		PayloadCodec codec = codecs.get(contentType);
+		Order order = new Order();
+		order.orderId = "o1";
+		order.total = new Money(1250, "EUR");
+
+		String body = codec.encoder(Order.class).encode(order);
+
+		// written with the naming and the module serializer of the application
+		JsonNode tree = new ObjectMapper(factory).readTree(Base64.getDecoder().decode(body));
+		assertEquals("o1", tree.get("order_id").asText());
+		assertEquals("1250 EUR", tree.get("total").asText());
+
+		// read back with them
+		Order read = (Order) codec.decoder(Order.class).decode(body);
+		assertEquals("o1", read.orderId);
+		assertEquals(1250, read.total.cents);
+		assertEquals("EUR", read.total.currency);
+
+		// and its features, an unknown property is ignored
+		ObjectMapper plain = new ObjectMapper(factory);
+		String extra = Base64.getEncoder().encodeToString(
+				plain.writeValueAsBytes(Map.of("order_id", "o2", "channel", "web")));
+		assertEquals("o2", ((Order) codec.decoder(Order.class).decode(extra)).orderId);
+	}
+
+	private static ObjectMapper applicationMapper() {
+		SimpleModule money = new SimpleModule();
+		money.addSerializer(Money.class, new JsonSerializer<Money>() {
+			@Override
+			public void serialize(Money value, JsonGenerator gen, SerializerProvider serializers)
+					throws IOException {
+				gen.writeString(value.cents + " " + value.currency);
+			}
+		});
+		money.addDeserializer(Money.class, new JsonDeserializer<Money>() {
+			@Override
+			public Money deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+				String[] parts = p.getValueAsString().split(" ");
+				return new Money(Long.parseLong(parts[0]), parts[1]);
+			}
+		});
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.registerModule(money);
+		mapper.setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+		mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+		return mapper;
+	}
+
+	public static class Order {
+
+		public String orderId;
+
+		public Money total;
+	}
+
+	public static class Money {
+
+		private final long cents;
+
+		private final String currency;
+
+		Money(long cents, String currency) {
+			this.cents = cents;
+			this.currency = currency;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.listen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Method;
+
+import org.example.listeners.Listeners;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author John Bryant
+ *
+ */
+class InvokerTest {
+
+	private final Object orders = Listeners.orders();
+
+	@Test
+	void generatesForPackagePrivateListenersElsewhere() throws Throwable {
+		Invoker invoker = Invoker.generate(method("handle", String.class, Integer.class), orders);
+
+		assertNotNull(invoker);
+		assertEquals("order7", invoker.invoke(new Object[] { "order", 7 }));
+	}
+
+	@Test
+	void voidMethodsReturnNull() throws Throwable {
+		Invoker invoker = Invoker.generate(method("record", String.class), orders);
+
+		assertNotNull(invoker);
+		assertNull(invoker.invoke(new Object[] { "order" }));
+	}
+
+	@Test
+	void exceptionsComeThroughUnwrapped() {
+		Method reject = method("reject", String.class);
+
+		assertThrows(IllegalStateException.class, () -> Invoker.create(reject, orders).invoke(new Object[] { "no" }));
+		assertThrows(IllegalStateException.class, () -> Invoker.reflect(reject, orders).invoke(new Object[] { "no" }));
+	}
+
+	@Test
+	void widerMethodsFallBackToAMethodHandle() throws Throwable {
+		Method wide = method("wide", String.class, String.class, String.class, String.class, String.class);
+
+		assertNull(Invoker.generate(wide, orders));
+		assertEquals("abcde", Invoker.create(wide, orders).invoke(new Object[] { "a", "b", "c", "d", "e" }));
+	}
+
+	private Method method(String name, Class<?>... parameterTypes) {
+		try {
+			return orders.getClass().getDeclaredMethod(name, parameterTypes);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.listen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.subnoize.qcat.Session;
+import net.subnoize.qcat.codec.PayloadCodecs;
+import net.subnoize.qcat.model.Attribute;
+import net.subnoize.qcat.model.Payload;
+
+/**
+ * @author John Bryant
+ *
+ */
+class ListenerBindingTest {
+
+	private static final ListenerBinding.MessageAccess<Msg> ACCESS = new ListenerBinding.MessageAccess<Msg>() {
+
+		@Override
+		public String body(Msg message) {
+			return message.body;
+		}
+
+		@Override
+		public Object attribute(Msg message, String name) {
+			return message.attributes.get(name);
+		}
+
+		@Override
+		public String messageId(Msg message) {
+			return message.id;
+		}
+	};
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final AtomicInteger readFailures = new AtomicInteger();
+
+	@AfterEach
+	void clear() {
+		MDC.clear();
+	}
+
+	@Test
+	void bindsEveryKindOfParameter() {
+		ListenerBinding<Msg> binding = binding("order");
+		Msg m = new Msg("1", "{\"id\":\"o1\",\"quantity\":2}", Map.of("count", 3L, "tenant", "t", "txn", "x1"));
+		Session<Msg> session = binding.newSession(m, "out");
+
+		Object[] args = binding.bind(session);
+
+		assertEquals("o1", ((Order) args[0]).id);
+		assertSame(session, args[1]);
+		assertSame(m, args[2]);
+		assertEquals(3, args[3]);
+		assertEquals("t", args[4]);
+		assertEquals("out", session.getDestination());
+		assertEquals("x1", session.getAttributes().get("txn"));
+		assertEquals("x1", MDC.get("txn"));
+		assertTrue(binding.getAttributeNames().containsAll(List.of("count", "tenant", "txn", PayloadCodecs.ATTRIBUTE)));
+	}
+
+	@Test
+	void unknownContentTypesFlagTheSession() {
+		ListenerBinding<Msg> binding = binding("order");
+		Session<Msg> session = binding.newSession(
+				new Msg("1", "{}", Map.of(PayloadCodecs.ATTRIBUTE, "application/x-unknown")), null);
+
+		assertNull(binding.bind(session)[0]);
+		assertTrue(session.isError());
+		assertEquals(1, readFailures.get());
+	}
+
+	@Test
+	void batchesLeaveUnreadableMessagesOut() {
+		ListenerBinding<Msg> binding = binding("orders");
+		List<Session<Msg>> sessions = List.of(
+				binding.newSession(new Msg("1", "{\"id\":\"o1\"}", Map.of("txn", "x1")), null),
+				binding.newSession(new Msg("2", "not json", Map.of("txn", "x2")), null),
+				binding.newSession(new Msg("3", "{\"id\":\"o3\"}", Map.of("txn", "x3")), null));
+
+		Object[] args = binding.bindBatch(sessions);
+
+		assertTrue(binding.isBatch());
+		assertEquals(2, ((List<?>) args[0]).size());
+		assertEquals("o3", ((Order) ((List<?>) args[0]).get(1)).id);
+		assertEquals(2, ((List<?>) args[1]).size());
+		assertFalse(sessions.get(0).isError());
+		assertTrue(sessions.get(1).isError());
+		assertEquals("x1,x3", MDC.get("txn"));
+	}
+
+	private ListenerBinding<Msg> binding(String name) {
+		Method method = Stream.of(Listener.class.getDeclaredMethods()).filter(m -> m.getName().equals(name))
+				.findFirst().orElseThrow();
+		return new ListenerBinding<>(method, Msg.class, ACCESS, mapper, new PayloadCodecs(mapper, Stream.empty()),
+				readFailures::incrementAndGet);
+	}
+
+	static final class Msg {
+
+		private final String id;
+
+		private final String body;
+
+		private final Map<String, Object> attributes;
+
+		Msg(String id, String body, Map<String, Object> attributes) {
+			this.id = id;
+			this.body = body;
+			this.attributes = attributes;
+		}
+	}
+
+	public static class Order {
+
+		public String id;
+
+		public int quantity;
+	}
+
+	static class Listener {
+
+		@ListenTo(value = "in", transactionId = "txn")
+		Order order(@Payload Order order, Session<Msg> session, Msg message, @Attribute("count") int count,
+				@Attribute("tenant") String tenant) {
+			return order;
+		}
+
+		@ListenTo(value = "in", batch = 10, transactionId = "txn")
+		void orders(@Payload List<Order> orders, @Attribute("tenant") List<String> tenants) {
+			// bound only
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.example.listeners;
+
+/**
+ * Listener beans of an application, in a package of their own and not public,
+ * the way Spring finds them by component scan
+ *
+ * @author John Bryant
+ *
+ */
+public final class Listeners {
+
+	private Listeners() {
+		super();
+	}
+
+	/**
+	 * @return a bean whose class and methods are package-private
+	 */
+	public static Object orders() {
+		return new Orders();
+	}
+
+	static class Orders {
+
+		String handle(String payload, Integer count) {
+			return payload + count;
+		}
+
+		void record(String payload) {
+			// nothing to return
+		}
+
+		void reject(String payload) {
+			throw new IllegalStateException(payload);
+		}
+
+		String wide(String a, String b, String c, String d, String e) {
+			return a + b + c + d + e;
+		}
+	}
+}
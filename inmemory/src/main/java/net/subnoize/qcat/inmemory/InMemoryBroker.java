@@ -0,0 +1,123 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.inmemory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import lombok.NoArgsConstructor;
+
+/**
+ * The queues of QcatInMemory by name, created on first use. Inject it to put
+ * messages on a queue a listener is waiting on or to check what is left on one.
+ *
+ * <pre>
+ * <code>
+ * &#64;Autowired
+ * private InMemoryBroker broker;
+ * 
+ * broker.send("orders", "{\"id\":1}");
+ * </code>
+ * </pre>
+ *
+ * @author John Bryant
+ *
+ */
+@Component
+@NoArgsConstructor
+public class InMemoryBroker {
+
+	/**
+	 * How often in milliseconds messages that overran their visibility timeout are
+	 * looked for
+	 */
+	static final long EXPIRE_PERIOD = 100;
+
+	@Autowired
+	private QcatInMemoryProperties properties;
+
+	private final Map<String, InMemoryQueue> queues = new ConcurrentHashMap<>();
+
+	private ScheduledExecutorService expireService;
+
+	@PostConstruct
+	public void init() {
+		expireService = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "qcat-inmemory-expire");
+			t.setDaemon(true);
+			return t;
+		});
+		expireService.scheduleAtFixedRate(() -> {
+			long now = System.currentTimeMillis();
+			queues.values().forEach(q -> q.expire(now));
+		}, EXPIRE_PERIOD, EXPIRE_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		expireService.shutdown();
+	}
+
+	/**
+	 * @param name
+	 * @return the queue, created empty if it did not exist
+	 */
+	public InMemoryQueue getQueue(String name) {
+		return queues.computeIfAbsent(name, n -> new InMemoryQueue(n, properties.getCapacity()));
+	}
+
+	/**
+	 * @return all the queues created so far
+	 */
+	public Collection<InMemoryQueue> getQueues() {
+		return Collections.unmodifiableCollection(queues.values());
+	}
+
+	/**
+	 * Put a message on a queue
+	 *
+	 * @param queue
+	 * @param body
+	 * @return the message ID or null if the queue is full
+	 */
+	public String send(String queue, String body) {
+		return getQueue(queue).offer(body, null);
+	}
+
+	/**
+	 * Put a message with attributes on a queue
+	 *
+	 * @param queue
+	 * @param body
+	 * @param attributes
+	 * @return the message ID or null if the queue is full
+	 */
+	public String send(String queue, String body, Map<String, Object> attributes) {
+		return getQueue(queue).offer(body, attributes);
+	}
+}
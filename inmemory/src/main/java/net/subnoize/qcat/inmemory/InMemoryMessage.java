@@ -0,0 +1,75 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.inmemory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * A message held by an InMemoryQueue. Messages are immutable, every receive
+ * hands out a copy carrying its own receipt handle so a late acknowledgement
+ * from an earlier receive can not delete a message that was handed out again.
+ *
+ * @author John Bryant
+ *
+ */
+@Getter
+public final class InMemoryMessage {
+
+	private final String messageId;
+
+	private final String body;
+
+	private final Map<String, Object> attributes;
+
+	private final int receiveCount;
+
+	private final String receiptHandle;
+
+	InMemoryMessage(String messageId, String body, Map<String, Object> attributes) {
+		this(messageId, body, attributes == null || attributes.isEmpty() ? Collections.emptyMap()
+				: Collections.unmodifiableMap(new HashMap<>(attributes)), 0, null);
+	}
+
+	private InMemoryMessage(String messageId, String body, Map<String, Object> attributes, int receiveCount,
+			String receiptHandle) {
+		this.messageId = messageId;
+		this.body = body;
+		this.attributes = attributes;
+		this.receiveCount = receiveCount;
+		this.receiptHandle = receiptHandle;
+	}
+
+	/**
+	 * @return the copy handed out by the next receive
+	 */
+	InMemoryMessage received() {
+		int count = receiveCount + 1;
+		return new InMemoryMessage(messageId, body, attributes, count, messageId + ':' + count);
+	}
+
+	/**
+	 * @param name
+	 * @return the attribute or null
+	 */
+	public Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.inmemory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+
+/**
+ * A bounded queue with SQS semantics kept entirely in the JVM. Received
+ * messages stay in flight until they are deleted by their receipt handle or
+ * their visibility timeout runs out, at which point they are visible again.
+ * <p>
+ * Nothing here takes a lock: the visible messages sit in a
+ * ConcurrentLinkedQueue and the capacity is claimed with a compare and set on
+ * the message count, which covers the visible and the in flight messages so a
+ * message returning from flight always has its place.
+ *
+ * @author John Bryant
+ *
+ */
+public class InMemoryQueue {
+
+	@Getter
+	private final String name;
+
+	@Getter
+	private final int capacity;
+
+	private final Queue<InMemoryMessage> visible = new ConcurrentLinkedQueue<>();
+
+	private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	private final AtomicLong ids = new AtomicLong();
+
+	private final List<Runnable> subscribers = new CopyOnWriteArrayList<>();
+
+	InMemoryQueue(String name, int capacity) {
+		this.name = name;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Add a message to the end of the queue
+	 *
+	 * @param body
+	 * @param attributes
+	 * @return the message ID or null if the queue is full
+	 */
+	public String offer(String body, Map<String, Object> attributes) {
+		int n;
+		do {
+			n = count.get();
+			if (n >= capacity) {
+				return null;
+			}
+		} while (!count.compareAndSet(n, n + 1));
+		InMemoryMessage m = new InMemoryMessage(name + '-' + ids.incrementAndGet(), body, attributes);
+		visible.offer(m);
+		signal();
+		return m.getMessageId();
+	}
+
+	/**
+	 * Take the next visible message and keep it in flight
+	 *
+	 * @param visibilityMillis how long it stays invisible to other receives
+	 * @return the message or null if there is none
+	 */
+	public InMemoryMessage receive(long visibilityMillis) {
+		InMemoryMessage m = visible.poll();
+		if (m == null) {
+			return null;
+		}
+		InMemoryMessage r = m.received();
+		inFlight.put(r.getReceiptHandle(), new InFlight(r, System.currentTimeMillis() + visibilityMillis));
+		return r;
+	}
+
+	/**
+	 * Acknowledge a received message
+	 *
+	 * @param receiptHandle
+	 * @return false if the receipt is no longer valid
+	 */
+	public boolean delete(String receiptHandle) {
+		if (inFlight.remove(receiptHandle) != null) {
+			count.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Change how long a received message stays in flight, 0 makes it visible
+	 * right away
+	 *
+	 * @param receiptHandle
+	 * @param visibilityMillis from now
+	 * @return false if the receipt is no longer valid
+	 */
+	public boolean changeVisibility(String receiptHandle, long visibilityMillis) {
+		if (visibilityMillis <= 0) {
+			InFlight f = inFlight.remove(receiptHandle);
+			if (f == null) {
+				return false;
+			}
+			restore(f.message);
+			return true;
+		}
+		return inFlight.computeIfPresent(receiptHandle,
+				(k, f) -> new InFlight(f.message, System.currentTimeMillis() + visibilityMillis)) != null;
+	}
+
+	/**
+	 * @return the messages waiting to be received
+	 */
+	public int getVisibleCount() {
+		return count.get() - inFlight.size();
+	}
+
+	/**
+	 * @return the messages received but not yet deleted
+	 */
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	/**
+	 * @return true if no message is visible
+	 */
+	public boolean isEmpty() {
+		return visible.isEmpty();
+	}
+
+	/**
+	 * Run the callback every time a message becomes visible
+	 *
+	 * @param subscriber
+	 */
+	void subscribe(Runnable subscriber) {
+		subscribers.add(subscriber);
+	}
+
+	void unsubscribe(Runnable subscriber) {
+		subscribers.remove(subscriber);
+	}
+
+	/**
+	 * Make the messages whose visibility timeout has run out visible again
+	 *
+	 * @param now
+	 */
+	void expire(long now) {
+		inFlight.forEach((receipt, f) -> {
+			if (f.deadline <= now && inFlight.remove(receipt, f)) {
+				restore(f.message);
+			}
+		});
+	}
+
+	private void restore(InMemoryMessage m) {
+		visible.offer(m);
+		signal();
+	}
+
+	private void signal() {
+		for (Runnable s : subscribers) {
+			s.run();
+		}
+	}
+
+	private static final class InFlight {
+
+		private final InMemoryMessage message;
+
+		private final long deadline;
+
+		private InFlight(InMemoryMessage message, long deadline) {
+			this.message = message;
+			this.deadline = deadline;
+		}
+	}
+}
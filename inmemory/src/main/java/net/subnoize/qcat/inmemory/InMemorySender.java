@@ -0,0 +1,86 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.inmemory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.subnoize.qcat.codec.PayloadCodec;
+import net.subnoize.qcat.codec.PayloadCodecs;
+import net.subnoize.qcat.send.Compression;
+import net.subnoize.qcat.send.Sender;
+
+/**
+ * The Sender of the in-memory provider, the message is on its queue by the time
+ * the future is returned. Bodies never leave the JVM, so like &#64;SendTo
+ * results they are written by the codec but never compressed.
+ *
+ * @author John Bryant
+ *
+ */
+public class InMemorySender implements Sender {
+
+	@Autowired
+	private InMemoryBroker broker;
+
+	@Autowired
+	private ObjectProvider<ObjectMapper> mappers;
+
+	@Autowired
+	private ObjectProvider<PayloadCodec> codecBeans;
+
+	private PayloadCodecs codecs;
+
+	@PostConstruct
+	public void init() {
+		codecs = new PayloadCodecs(mappers.getIfAvailable(ObjectMapper::new), codecBeans.orderedStream());
+	}
+
+	@Override
+	public CompletableFuture<String> send(String destination, Object payload, Map<String, Object> attributes) {
+		return send(destination, payload, attributes, PayloadCodec.JSON, Compression.NONE);
+	}
+
+	@Override
+	public CompletableFuture<String> send(String destination, Object payload, Map<String, Object> attributes,
+			String codec, Compression compression) {
+		try {
+			PayloadCodec payloadCodec = codecs.get(codec);
+			String body = payloadCodec.encoder(payload != null ? payload.getClass() : Object.class).encode(payload);
+			if (!PayloadCodec.JSON.equals(payloadCodec.getContentType())) {
+				attributes = attributes == null ? new HashMap<>() : new HashMap<>(attributes);
+				attributes.put(PayloadCodecs.ATTRIBUTE, payloadCodec.getContentType());
+			}
+			String id = broker.send(destination, body, attributes);
+			if (id == null) {
+				return CompletableFuture.failedFuture(new IllegalStateException("Queue " + destination + " is full"));
+			}
+			return CompletableFuture.completedFuture(id);
+		} catch (IOException | IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+}
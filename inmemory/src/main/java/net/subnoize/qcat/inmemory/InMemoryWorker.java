@@ -0,0 +1,398 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.inmemory;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+import net.subnoize.qcat.Session;
+import net.subnoize.qcat.codec.PayloadCodec;
+import net.subnoize.qcat.codec.PayloadCodecs;
+import net.subnoize.qcat.listen.Invoker;
+import net.subnoize.qcat.listen.ListenTo;
+import net.subnoize.qcat.listen.ListenerBinding;
+import net.subnoize.qcat.listen.ThreadMode;
+import net.subnoize.qcat.send.SendTo;
+import net.subnoize.qcat.util.ConfigurationUtils;
+
+/**
+ * Runs one listener method against its InMemoryQueue. There is nothing to poll:
+ * the queue wakes the worker when a message arrives and every runner keeps
+ * taking messages until the queue is empty, with at most
+ * &#64;ListenTo(max) runners at a time. With several queues every message is
+ * taken from the first of them that has one. A batch listener gets up to
+ * &#64;ListenTo(batch) messages per call, as many as the queues have without
+ * waiting for more.
+ * <p>
+ * Messages are bound to the method by the same {@link ListenerBinding} as with
+ * any other provider. What only tunes how a provider fetches and schedules
+ * messages has no effect here: &#64;ListenTo(queueWeights), prefetch, threads,
+ * poolWeight, timeout, min, polling and waitTimeSeconds. The worker warns at
+ * startup about the ones a listener relies on.
+ *
+ * @author John Bryant
+ *
+ */
+@Slf4j
+class InMemoryWorker implements Runnable {
+
+	@Autowired
+	private InMemoryBroker broker;
+
+	@Autowired
+	private QcatInMemoryProperties properties;
+
+	@Autowired
+	private ObjectProvider<ObjectMapper> mappers;
+
+	@Autowired
+	private ObjectProvider<PayloadCodec> codecBeans;
+
+	@Autowired
+	private ConfigurationUtils helper;
+
+	private final Method method;
+
+	private final Object target;
+
+	private ListenTo to;
+
+	private InMemoryQueue[] queues;
+
+	private long visibilityMillis;
+
+	private boolean sendToPresent = false;
+
+	private String sendTo;
+
+	private String resultContentType;
+
+	private ListenerBinding<InMemoryMessage> binding;
+
+	private Invoker invoker;
+
+	private volatile boolean running = false;
+
+	private final AtomicInteger runners = new AtomicInteger(0);
+
+	private ExecutorService executorService;
+
+	private final Runnable waker = this::wake;
+
+	private static final ListenerBinding.MessageAccess<InMemoryMessage> ACCESS = new ListenerBinding.MessageAccess<InMemoryMessage>() {
+
+		@Override
+		public String body(InMemoryMessage message) {
+			return message.getBody();
+		}
+
+		@Override
+		public Object attribute(InMemoryMessage message, String name) {
+			return message.getAttribute(name);
+		}
+
+		@Override
+		public String messageId(InMemoryMessage message) {
+			return message.getMessageId();
+		}
+	};
+
+	InMemoryWorker(Method method, Object target) {
+		this.method = method;
+		this.target = target;
+	}
+
+	@PostConstruct
+	public void init() {
+		to = method.getAnnotation(ListenTo.class);
+		ObjectMapper mapper = mappers.getIfAvailable(ObjectMapper::new);
+		binding = new ListenerBinding<>(method, InMemoryMessage.class, ACCESS, mapper,
+				new PayloadCodecs(mapper, codecBeans.orderedStream()), null);
+		queues = Stream.concat(Stream.of(to.value()).filter(StringUtils::isNotBlank), Arrays.stream(to.queues()))
+				.map(name -> broker.getQueue(resolve(name))).toArray(InMemoryQueue[]::new);
+		if (queues.length == 0) {
+			throw new IllegalArgumentException(
+					"No queue to listen to on " + target.getClass().getName() + "." + method.getName());
+		}
+		visibilityMillis = TimeUnit.SECONDS
+				.toMillis(to.visibilityTimeout() < 0 ? properties.getVisibilityTimeout() : to.visibilityTimeout());
+
+		if (method.isAnnotationPresent(SendTo.class)) {
+			sendToPresent = true;
+			sendTo = method.getAnnotation(SendTo.class).value();
+			if (StringUtils.isNotBlank(sendTo)) {
+				sendTo = resolve(sendTo);
+			}
+			if (!PayloadCodec.JSON.equals(binding.getResultCodec().getContentType())) {
+				resultContentType = binding.getResultCodec().getContentType();
+			}
+		}
+
+		invoker = Invoker.create(method, target);
+
+		warnIgnored();
+
+		log.info("Starting: {}.{}('{}',{},{})", target.getClass().getName(), method.getName(), getNames(),
+				to.max(), visibilityMillis);
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(to.max(), to.max(), 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>());
+		pool.allowCoreThreadTimeOut(true);
+		executorService = pool;
+		running = true;
+		for (InMemoryQueue queue : queues) {
+			queue.subscribe(waker);
+		}
+		wake();
+	}
+
+	public void shutdown() {
+		running = false;
+		for (InMemoryQueue queue : queues) {
+			queue.unsubscribe(waker);
+		}
+		executorService.shutdown();
+		log.info("Stopping: {}.{}('{}')", target.getClass().getName(), method.getName(), getNames());
+	}
+
+	private void warnIgnored() {
+		List<String> ignored = new ArrayList<>();
+		if (to.queueWeights().length > 0) {
+			ignored.add("queueWeights");
+		}
+		if (to.prefetch() > 0) {
+			ignored.add("prefetch");
+		}
+		if (to.threads() != ThreadMode.DEFAULT) {
+			ignored.add("threads");
+		}
+		if (to.poolWeight() != 1) {
+			ignored.add("poolWeight");
+		}
+		if (to.timeout() > 0) {
+			ignored.add("timeout");
+		}
+		if (!ignored.isEmpty()) {
+			log.warn("{}.{} sets {} which the in-memory provider does not apply", target.getClass().getName(),
+					method.getName(), String.join(", ", ignored));
+		}
+	}
+
+	private String getNames() {
+		return Arrays.stream(queues).map(InMemoryQueue::getName).collect(Collectors.joining("','"));
+	}
+
+	private boolean isEmpty() {
+		for (InMemoryQueue queue : queues) {
+			if (!queue.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Start another runner if there are messages and room for one
+	 */
+	private void wake() {
+		int n;
+		do {
+			n = runners.get();
+			if (!running || n >= to.max() || isEmpty()) {
+				return;
+			}
+		} while (!runners.compareAndSet(n, n + 1));
+		try {
+			executorService.execute(this);
+		} catch (RejectedExecutionException e) {
+			runners.decrementAndGet();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			boolean received = true;
+			while (running && received) {
+				received = binding.isBatch() ? receiveBatch() : receiveOne();
+			}
+		} finally {
+			runners.decrementAndGet();
+		}
+		// a message may have arrived between the last empty receive and letting go
+		wake();
+	}
+
+	/**
+	 * Handle a message of the first queue that has one, so every message starts
+	 * over at the first queue
+	 * 
+	 * @return false if all the queues were empty
+	 */
+	private boolean receiveOne() {
+		for (InMemoryQueue queue : queues) {
+			InMemoryMessage m = queue.receive(visibilityMillis);
+			if (m != null) {
+				processMessage(queue, m);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Handle up to &#64;ListenTo(batch) messages with one call, taking what the
+	 * first queue has before moving on to the next. It does not wait for a full
+	 * batch.
+	 * 
+	 * @return false if all the queues were empty
+	 */
+	private boolean receiveBatch() {
+		List<InMemoryQueue> from = new ArrayList<>(to.batch());
+		List<InMemoryMessage> messages = new ArrayList<>(to.batch());
+		for (InMemoryQueue queue : queues) {
+			InMemoryMessage m;
+			while (messages.size() < to.batch() && (m = queue.receive(visibilityMillis)) != null) {
+				from.add(queue);
+				messages.add(m);
+			}
+		}
+		if (messages.isEmpty()) {
+			return false;
+		}
+		processBatch(from, messages);
+		return true;
+	}
+
+	private void processMessage(InMemoryQueue queue, InMemoryMessage m) {
+		try {
+			Session<InMemoryMessage> session = binding.newSession(m, sendTo);
+			Object ret = invoker.invoke(binding.bind(session));
+			if (session.isError()) {
+				log.error("Error: {} ({})", session.getErrorDescription(), session.getErrorCode());
+			} else if (!sendResult(ret, session)) {
+				return;
+			}
+			if (session.isAcknowledge()) {
+				queue.delete(m.getReceiptHandle());
+			}
+		} catch (Throwable e) {
+			log.error("Error while handling message: {}", m.getMessageId(), e);
+		} finally {
+			MDC.clear();
+		}
+	}
+
+	/**
+	 * Handle a batch with one call of a batch listener, the same way the SQS
+	 * provider does. Messages that could not be read are left out of the call and
+	 * acknowledged like the others when their Session asks for it. The results go
+	 * with the destination and attributes of the first message that was read. A
+	 * result that can not be sent or an exception from the listener leaves the
+	 * whole batch.
+	 * 
+	 * @param from     the queue of every message
+	 * @param messages
+	 */
+	private void processBatch(List<InMemoryQueue> from, List<InMemoryMessage> messages) {
+		try {
+			List<Session<InMemoryMessage>> sessions = new ArrayList<>(messages.size());
+			messages.forEach(m -> sessions.add(binding.newSession(m, sendTo)));
+			Object[] args = binding.bindBatch(sessions);
+			Session<InMemoryMessage> first = sessions.stream().filter(session -> !session.isError()).findFirst()
+					.orElse(null);
+			if (first != null) {
+				Object ret = invoker.invoke(args);
+				Collection<?> results = ret instanceof Collection ? (Collection<?>) ret
+						: Collections.singleton(ret);
+				for (Object result : results) {
+					if (!sendResult(result, first)) {
+						return;
+					}
+				}
+			}
+			for (int i = 0; i < sessions.size(); i++) {
+				Session<InMemoryMessage> session = sessions.get(i);
+				if (session.isError()) {
+					log.error("Error: {} ({})", session.getErrorDescription(), session.getErrorCode());
+				}
+				if (session.isAcknowledge()) {
+					from.get(i).delete(messages.get(i).getReceiptHandle());
+				}
+			}
+		} catch (Throwable e) {
+			log.error("Error while handling batch on: {}", getNames(), e);
+		} finally {
+			MDC.clear();
+		}
+	}
+
+	/**
+	 * Put a result on the destination of the Session, if there is a SendTo
+	 * 
+	 * @param ret     may be null, nothing is sent then
+	 * @param session
+	 * @return false if the destination queue is full
+	 * @throws IOException
+	 */
+	private boolean sendResult(Object ret, Session<InMemoryMessage> session) throws IOException {
+		if (ret == null || !sendToPresent) {
+			return true;
+		}
+		String body = binding.encode(ret);
+		Map<String, Object> attributes = session.getAttributes();
+		if (resultContentType != null) {
+			attributes = new HashMap<>(attributes);
+			attributes.put(PayloadCodecs.ATTRIBUTE, resultContentType);
+		}
+		if (broker.send(session.getDestination(), body, attributes) == null) {
+			log.error("Queue {} is full, result of message {} not sent", session.getDestination(),
+					session.getRequest().getMessageId());
+			return false;
+		}
+		return true;
+	}
+
+	private String resolve(String name) {
+		return name.contains("${") ? helper.getString(name) : name;
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.inmemory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextClosedEvent;
+
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.subnoize.qcat.Provider;
+import net.subnoize.qcat.listen.ListenTo;
+import net.subnoize.qcat.send.Sender;
+
+/**
+ * A Provider that keeps its queues in the JVM, for tests, local runs and
+ * services sharing a JVM. Queue names in &#64;ListenTo and &#64;SendTo are
+ * plain names, the QcatInMemorySender bean or the InMemoryBroker bean puts
+ * messages on them from outside a listener.
+ * 
+ * <pre>
+ * <code>
+ * &#64;Listen(QcatInMemory.PROVIDER)
+ * public class OrderListener {
+ *   &#64;ListenTo(value = "orders", max = 4)
+ *   &#64;SendTo("invoices")
+ *   public Invoice order(&#64;Payload Order order, &#64;Attribute("tenant") String tenant) {
+ *     ...
+ *   }
+ * }
+ * </code>
+ * </pre>
+ * 
+ * @author John Bryant
+ *
+ */
+@Slf4j
+@Configuration(QcatInMemory.PROVIDER)
+@NoArgsConstructor
+@EnableConfigurationProperties(QcatInMemoryProperties.class)
+public class QcatInMemory implements Provider, ApplicationListener<ContextClosedEvent> {
+
+	public static final String PROVIDER = "QcatInMemory";
+
+	public static final String SENDER = "QcatInMemorySender";
+
+	@Autowired
+	private ApplicationContext context;
+
+	private List<InMemoryWorker> workers = new ArrayList<>();
+
+	public void shutdown() {
+		workers.forEach(InMemoryWorker::shutdown);
+		workers.clear();
+	}
+
+	@Override
+	public void registerListener(Class<?> klass) {
+		for (Method method : klass.getDeclaredMethods()) {
+			if (method.isAnnotationPresent(ListenTo.class)) {
+				try {
+					workers.add(getMessageWorker(method, context.getBean(klass)));
+				} catch (Exception e) {
+					log.error("Error creating method and target for listener worker", e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void onApplicationEvent(ContextClosedEvent event) {
+		shutdown();
+	}
+
+	/**
+	 * @return the Sender for putting messages on the queues from application code
+	 */
+	@Bean(SENDER)
+	public Sender getSender() {
+		return new InMemorySender();
+	}
+
+	@Bean
+	@Scope(BeanDefinition.SCOPE_PROTOTYPE)
+	public InMemoryWorker getMessageWorker(Method method, Object target) {
+		return new InMemoryWorker(method, target);
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.inmemory;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Provider wide settings for QcatInMemory, bound from the "qcat.inmemory"
+ * prefix of the Spring configuration.
+ *
+ * <pre>
+ * <code>
+ * qcat.inmemory.capacity=10000
+ * qcat.inmemory.visibility-timeout=30
+ * </code>
+ * </pre>
+ *
+ * @author John Bryant
+ *
+ */
+@Data
+@ConfigurationProperties(prefix = "qcat.inmemory")
+public class QcatInMemoryProperties {
+
+	/**
+	 * The most messages a queue holds, visible and in flight together. Sends to a
+	 * full queue are refused.
+	 */
+	private int capacity = 10000;
+
+	/**
+	 * The visibility timeout in seconds of listeners that leave
+	 * &#64;ListenTo(visibilityTimeout) at its default.
+	 */
+	private int visibilityTimeout = 30;
+
+}
@@ -0,0 +1,94 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.inmemory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author John Bryant
+ *
+ */
+class InMemoryQueueTest {
+
+	private final InMemoryQueue queue = new InMemoryQueue("orders", 2);
+
+	@Test
+	void receivedMessagesReturnOnceTheirVisibilityRunsOut() {
+		queue.offer("body", Map.of());
+		InMemoryMessage first = queue.receive(1000);
+		assertNull(queue.receive(1000));
+
+		// not yet due
+		queue.expire(System.currentTimeMillis());
+		assertTrue(queue.isEmpty());
+
+		queue.expire(System.currentTimeMillis() + 1000);
+		InMemoryMessage second = queue.receive(1000);
+		assertEquals(first.getMessageId(), second.getMessageId());
+		assertEquals(2, second.getReceiveCount());
+		assertNotEquals(first.getReceiptHandle(), second.getReceiptHandle());
+		// the expired receipt no longer acknowledges it
+		assertFalse(queue.delete(first.getReceiptHandle()));
+		assertTrue(queue.delete(second.getReceiptHandle()));
+		assertEquals(0, queue.getInFlightCount());
+	}
+
+	@Test
+	void deletedMessagesDoNotReturn() {
+		queue.offer("body", Map.of());
+		assertTrue(queue.delete(queue.receive(0).getReceiptHandle()));
+
+		queue.expire(Long.MAX_VALUE);
+
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.getVisibleCount());
+	}
+
+	@Test
+	void changedVisibilityMovesTheDeadline() {
+		queue.offer("body", Map.of());
+		InMemoryMessage m = queue.receive(0);
+		assertTrue(queue.changeVisibility(m.getReceiptHandle(), 60000));
+
+		queue.expire(System.currentTimeMillis() + 1000);
+		assertTrue(queue.isEmpty());
+
+		assertTrue(queue.changeVisibility(m.getReceiptHandle(), 0));
+		assertEquals(1, queue.getVisibleCount());
+		assertFalse(queue.changeVisibility(m.getReceiptHandle(), 1000));
+	}
+
+	@Test
+	void inFlightMessagesKeepTheirPlace() {
+		queue.offer("a", Map.of());
+		queue.offer("b", Map.of());
+		queue.receive(0);
+
+		assertNull(queue.offer("c", Map.of()));
+		assertEquals(1, queue.getVisibleCount());
+		assertEquals(1, queue.getInFlightCount());
+	}
+}
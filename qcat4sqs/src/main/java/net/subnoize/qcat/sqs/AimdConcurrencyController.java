@@ -0,0 +1,111 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Additive increase, multiplicative decrease between min and max.
+ * <p>
+ * Full receives mean there is a backlog, so the limit grows by one for each of
+ * them. Empty receives mean there is nothing to do, so the limit shrinks by a
+ * tenth. The limit is also cut by a quarter when handlers start failing more
+ * than the tolerated error rate or get slower than twice their best observed
+ * latency, since more concurrency against a struggling downstream only makes
+ * things worse. Partial receives leave the limit where it is.
+ * <p>
+ * All decisions are applied when a receive comes back so the limit moves at
+ * most once per batch. They are logged at debug and available through the
+ * getters for tuning.
+ *
+ * @author John Bryant
+ *
+ */
+@Slf4j
+@Getter
+public class AimdConcurrencyController implements ConcurrencyController {
+
+	static final double DECREASE = 0.75;
+
+	static final double IDLE_DECREASE = 0.9;
+
+	static final double ALPHA = 0.05;
+
+	static final double ERROR_TOLERANCE = 0.1;
+
+	static final double LATENCY_TOLERANCE = 2.0;
+
+	private final int min;
+
+	private final int max;
+
+	private volatile double limitValue;
+
+	private volatile double errorRate = 0;
+
+	private volatile double latency = 0;
+
+	private volatile double baselineLatency = Double.MAX_VALUE;
+
+	private volatile String lastDecision = "start";
+
+	public AimdConcurrencyController(int min, int max) {
+		this.min = Math.max(1, min);
+		this.max = Math.max(this.min, max);
+		this.limitValue = this.min;
+	}
+
+	@Override
+	public synchronized void onReceive(int received, int requested) {
+		double before = limitValue;
+		if (errorRate > ERROR_TOLERANCE) {
+			limitValue *= DECREASE;
+			lastDecision = "errors";
+		} else if (latency > baselineLatency * LATENCY_TOLERANCE) {
+			limitValue *= DECREASE;
+			lastDecision = "latency";
+			// forget a little so a permanently slower downstream becomes the new normal
+			baselineLatency *= 1.1;
+		} else if (received >= requested) {
+			limitValue += 1;
+			lastDecision = "backlog";
+		} else if (received == 0) {
+			limitValue *= IDLE_DECREASE;
+			lastDecision = "idle";
+		}
+		limitValue = Math.max(min, Math.min(max, limitValue));
+		if ((int) before != (int) limitValue && log.isDebugEnabled()) {
+			log.debug("Concurrency {} -> {} ({}, latency {} ms, errors {}%)", (int) before, (int) limitValue,
+					lastDecision, String.format("%.2f", latency / 1_000_000d), String.format("%.1f", errorRate * 100));
+		}
+	}
+
+	@Override
+	public synchronized void onHandled(long nanos, boolean failed) {
+		errorRate += ALPHA * ((failed ? 1 : 0) - errorRate);
+		if (!failed) {
+			latency = latency == 0 ? nanos : latency + ALPHA * (nanos - latency);
+			baselineLatency = Math.min(baselineLatency, latency);
+		}
+	}
+
+	@Override
+	public int getLimit() {
+		return (int) limitValue;
+	}
+}
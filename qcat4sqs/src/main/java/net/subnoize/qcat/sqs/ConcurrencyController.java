@@ -0,0 +1,72 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+/**
+ * Decides how many receives and handlers a listener runs at once, somewhere
+ * between the min and max of its ListenTo. The worker reports every receive and
+ * every handled message and asks for the current limit before starting another
+ * receive.
+ * <p>
+ * To replace the default {@link AimdConcurrencyController} declare a
+ * {@link Factory} bean.
+ *
+ * <pre>
+ * <code>
+ * &#64;Bean
+ * public ConcurrencyController.Factory fixedConcurrency() {
+ *   return (min, max) -&gt; new MyController(min, max);
+ * }
+ * </code>
+ * </pre>
+ *
+ * @author John Bryant
+ *
+ */
+public interface ConcurrencyController {
+
+	/**
+	 * A receive came back
+	 *
+	 * @param received  the number of messages returned
+	 * @param requested the number of messages asked for
+	 */
+	void onReceive(int received, int requested);
+
+	/**
+	 * A message was handled
+	 *
+	 * @param nanos  the time the handler took
+	 * @param failed true if the handler threw or flagged an error on the Session
+	 */
+	void onHandled(long nanos, boolean failed);
+
+	/**
+	 * @return the current concurrency limit
+	 */
+	int getLimit();
+
+	/**
+	 * Creates the controller of each listener
+	 */
+	@FunctionalInterface
+	interface Factory {
+
+		ConcurrencyController create(int min, int max);
+
+	}
+}
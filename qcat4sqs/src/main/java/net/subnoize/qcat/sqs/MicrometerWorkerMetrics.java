@@ -0,0 +1,181 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+
+import org.springframework.context.ApplicationContext;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Publishes the metrics of one worker to Micrometer, tagged with the listener
+ * method, its class named in full, and the names of all its queues, joined by
+ * commas.
+ * <ul>
+ * <li>qcat.receive - receive latency, tagged by outcome</li>
+ * <li>qcat.receive.messages - messages per receive</li>
+ * <li>qcat.receive.empty - empty receives, against the count of qcat.receive
+ * this is the empty-receive ratio</li>
+ * <li>qcat.handle - handler latency histogram, tagged by outcome</li>
+ * <li>qcat.deserialization.failures - payloads that could not be bound</li>
+ * <li>qcat.ack and qcat.send - latency until the batch was answered, tagged by
+ * outcome</li>
+ * <li>qcat.inflight - messages being handled or waiting for a thread</li>
+ * <li>qcat.executor.queue - messages waiting for a thread</li>
+ * <li>qcat.concurrency.limit - the current limit of the concurrency
+ * controller</li>
+ * </ul>
+ * The meters are removed from the registry when the worker shuts down, so a
+ * stopped listener leaves no gauges behind. Only ever loaded when Micrometer is
+ * on the classpath, see
+ * {@link SqsWorkerMetrics#of(ApplicationContext, Qcat4SqsWorker)}.
+ *
+ * @author John Bryant
+ *
+ */
+class MicrometerWorkerMetrics implements SqsWorkerMetrics {
+
+	private final MeterRegistry registry;
+	private final List<Meter> meters = new ArrayList<>();
+	private final Timer receiveSuccess;
+	private final Timer receiveFailure;
+	private final DistributionSummary messagesPerReceive;
+	private final Counter emptyReceives;
+	private final Timer handleSuccess;
+	private final Timer handleFailure;
+	private final Counter deserializationFailures;
+	private final Timer ackSuccess;
+	private final Timer ackFailure;
+	private final Timer sendSuccess;
+	private final Timer sendFailure;
+
+	MicrometerWorkerMetrics(MeterRegistry registry, Tags tags, IntSupplier inFlight, IntSupplier queueDepth,
+			IntSupplier limit) {
+		this.registry = registry;
+		receiveSuccess = timer("qcat.receive", tags, "success", false);
+		receiveFailure = timer("qcat.receive", tags, "error", false);
+		messagesPerReceive = add(DistributionSummary.builder("qcat.receive.messages").tags(tags).register(registry));
+		emptyReceives = add(Counter.builder("qcat.receive.empty").tags(tags).register(registry));
+		handleSuccess = timer("qcat.handle", tags, "success", true);
+		handleFailure = timer("qcat.handle", tags, "error", true);
+		deserializationFailures = add(
+				Counter.builder("qcat.deserialization.failures").tags(tags).register(registry));
+		ackSuccess = timer("qcat.ack", tags, "success", false);
+		ackFailure = timer("qcat.ack", tags, "error", false);
+		sendSuccess = timer("qcat.send", tags, "success", false);
+		sendFailure = timer("qcat.send", tags, "error", false);
+		// Micrometer only keeps a weak reference to what a gauge reads, nothing else
+		// holds on to these suppliers
+		gauge("qcat.inflight", tags, inFlight);
+		gauge("qcat.executor.queue", tags, queueDepth);
+		gauge("qcat.concurrency.limit", tags, limit);
+	}
+
+	/**
+	 * Metrics for the worker if a MeterRegistry bean is available, otherwise
+	 * {@link SqsWorkerMetrics#NOOP}
+	 *
+	 * @param context
+	 * @param worker
+	 * @return the metrics of the worker
+	 */
+	static SqsWorkerMetrics create(ApplicationContext context, Qcat4SqsWorker worker) {
+		MeterRegistry registry = context.getBeanProvider(MeterRegistry.class).getIfAvailable();
+		if (registry == null) {
+			return NOOP;
+		}
+		return new MicrometerWorkerMetrics(registry, tags(worker.getTemplate()), worker::getInFlight,
+				worker::getQueueDepth, worker::getConcurrencyLimit);
+	}
+
+	/**
+	 * @param template
+	 * @return the listener method with its class named in full, and the names of
+	 *         all its queues joined by commas
+	 */
+	static Tags tags(SqsExecutionTemplate template) {
+		Method method = template.getMethod();
+		return Tags.of("listener", method.getDeclaringClass().getName() + "." + method.getName(), "queue",
+				template.getQueueUrls().stream().map(url -> url.substring(url.lastIndexOf('/') + 1))
+						.collect(Collectors.joining(",")));
+	}
+
+	private void gauge(String name, Tags tags, IntSupplier value) {
+		add(Gauge.builder(name, value, IntSupplier::getAsInt).tags(tags).strongReference(true).register(registry));
+	}
+
+	private Timer timer(String name, Tags tags, String outcome, boolean histogram) {
+		return add(Timer.builder(name).tags(tags).tag("outcome", outcome).publishPercentileHistogram(histogram)
+				.register(registry));
+	}
+
+	private <T extends Meter> T add(T meter) {
+		meters.add(meter);
+		return meter;
+	}
+
+	@Override
+	public void close() {
+		meters.forEach(registry::remove);
+		meters.clear();
+	}
+
+	@Override
+	public void received(long nanos, int messages) {
+		if (messages < 0) {
+			receiveFailure.record(nanos, TimeUnit.NANOSECONDS);
+			return;
+		}
+		receiveSuccess.record(nanos, TimeUnit.NANOSECONDS);
+		messagesPerReceive.record(messages);
+		if (messages == 0) {
+			emptyReceives.increment();
+		}
+	}
+
+	@Override
+	public void handled(long nanos, boolean failed) {
+		(failed ? handleFailure : handleSuccess).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void deserializationFailed() {
+		deserializationFailures.increment();
+	}
+
+	@Override
+	public void acknowledged(long nanos, boolean failed) {
+		(failed ? ackFailure : ackSuccess).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void sent(long nanos, boolean failed) {
+		(failed ? sendFailure : sendSuccess).record(nanos, TimeUnit.NANOSECONDS);
+	}
+}
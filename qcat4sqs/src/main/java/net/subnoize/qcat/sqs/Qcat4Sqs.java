@@ -19,9 +19,17 @@ package net.subnoize.qcat.sqs;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
@@ -32,7 +40,9 @@ import org.springframework.context.event.ContextClosedEvent;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.subnoize.qcat.Provider;
+import net.subnoize.qcat.blob.BlobStore;
 import net.subnoize.qcat.listen.ListenTo;
+import net.subnoize.qcat.send.Sender;
 import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 
 /**
@@ -59,20 +69,88 @@ import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 @Slf4j
 @Configuration(Qcat4Sqs.PROVIDER)
 @NoArgsConstructor
+@EnableConfigurationProperties(Qcat4SqsProperties.class)
 public class Qcat4Sqs implements Provider, ApplicationListener<ContextClosedEvent> {
 
 	public static final String PROVIDER = "Qcat4Sqs";
 
+	public static final String SENDER = "Qcat4SqsSender";
+
 	@Autowired
 	private SqsAsyncClient asyncClient;
 
 	@Autowired
 	private ApplicationContext context;
 
+	@Autowired
+	private Qcat4SqsProperties properties;
+
+	@Autowired
+	private ObjectProvider<BlobStore> blobStores;
+
 	private List<Qcat4SqsWorker> workers = new ArrayList<>();
 
+	private ScheduledExecutorService batchScheduler;
+
+	private SqsAcknowledger acknowledger;
+
+	private SqsSender sender;
+
+	private SqsPublisher publisher;
+
+	private SqsVisibilityChanger visibilityChanger;
+
+	private SqsQueueUrlResolver urlResolver;
+
+	private SqsExecutionEngine engine;
+
+	@PostConstruct
+	public void init() {
+		batchScheduler = Executors.newSingleThreadScheduledExecutor();
+		acknowledger = new SqsAcknowledger(asyncClient, batchScheduler, properties.getAckLinger(),
+				properties.getAckRetries());
+		sender = new SqsSender(asyncClient, batchScheduler, properties.getSendLinger(), properties.getSendRetries());
+		publisher = new SqsPublisher(sender, blobStores.getIfAvailable(), properties.getCompressionThreshold(),
+				properties.getClaimCheckThreshold());
+		urlResolver = new SqsQueueUrlResolver(asyncClient, properties.getQueueUrlTtl(),
+				properties.getQueueUrlNegativeTtl());
+		visibilityChanger = new SqsVisibilityChanger(asyncClient, batchScheduler, properties.getAckLinger(),
+				properties.getAckRetries());
+		if (properties.getSharedThreads() > 0) {
+			engine = new SqsExecutionEngine(properties.getSharedThreads(), batchScheduler);
+		}
+	}
+
+	/**
+	 * Drain before closing: stop receiving and give prefetched messages back, let
+	 * the messages being handled finish within the shutdown timeout, send what the
+	 * batchers still hold and only then close the client.
+	 */
 	public void shutdown() {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(properties.getShutdownTimeout());
+		workers.forEach(Qcat4SqsWorker::stop);
+		try {
+			for (Qcat4SqsWorker worker : workers) {
+				if (!worker.awaitDrain(deadline)) {
+					log.warn("Listener on {} did not drain within {}ms", worker.getTemplate().getQueueUrl(),
+							properties.getShutdownTimeout());
+				}
+			}
+			// whatever is left of the deadline, but a moment at least so nothing
+			// already handled has to be done again
+			long flush = Math.max(deadline - System.nanoTime(), TimeUnit.SECONDS.toNanos(1));
+			CompletableFuture.allOf(sender.flush(), acknowledger.flush(), visibilityChanger.flush()).get(flush,
+					TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			log.error("Error flushing sends and acknowledgements", e);
+		}
 		workers.forEach(Qcat4SqsWorker::shutdown);
+		if (engine != null) {
+			engine.shutdown();
+		}
+		batchScheduler.shutdown();
 		asyncClient.close();
 	}
 
@@ -94,10 +172,19 @@ public class Qcat4Sqs implements Provider, ApplicationListener<ContextClosedEven
 		shutdown();
 	}
 
+	/**
+	 * @return the Sender for sending to SQS from application code
+	 */
+	@Bean(SENDER)
+	public Sender getSender() {
+		return new Qcat4SqsSender(publisher, urlResolver);
+	}
+
 	@Bean
 	@Scope(BeanDefinition.SCOPE_PROTOTYPE)
 	public Qcat4SqsWorker getMesssageWorker(Method method, Object target) {
-		return new Qcat4SqsWorker(getExecutionTemplate(method, target));
+		return new Qcat4SqsWorker(getExecutionTemplate(method, target), acknowledger, sender, publisher,
+				visibilityChanger, engine);
 	}
 
 	@Bean
@@ -106,6 +193,8 @@ public class Qcat4Sqs implements Provider, ApplicationListener<ContextClosedEven
 		SqsExecutionTemplate temp = new SqsExecutionTemplate();
 		temp.setMethod(method);
 		temp.setTarget(target);
+		temp.setUrlResolver(urlResolver);
+		temp.setMaxDecompressedSize(properties.getMaxDecompressedSize());
 		return temp;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Provider wide settings for Qcat4Sqs, bound from the "qcat.sqs" prefix of the
+ * Spring configuration.
+ *
+ * <pre>
+ * <code>
+ * qcat.sqs.ack-linger=10
+ * qcat.sqs.ack-retries=2
+ * qcat.sqs.send-linger=10
+ * qcat.sqs.send-retries=2
+ * qcat.sqs.compression-threshold=1024
+ * qcat.sqs.max-decompressed-size=16777216
+ * qcat.sqs.claim-check-threshold=262144
+ * qcat.sqs.claim-check-delete=false
+ * qcat.sqs.virtual-threads=false
+ * qcat.sqs.shutdown-timeout=30000
+ * qcat.sqs.shared-threads=0
+ * qcat.sqs.queue-url-ttl=300000
+ * qcat.sqs.queue-url-negative-ttl=10000
+ * </code>
+ * </pre>
+ *
+ * @author John Bryant
+ *
+ */
+@Data
+@ConfigurationProperties(prefix = "qcat.sqs")
+public class Qcat4SqsProperties {
+
+	/**
+	 * The longest time in milliseconds an acknowledged message waits for others to
+	 * share its DeleteMessageBatch call, and a visibility change its
+	 * ChangeMessageVisibilityBatch call.
+	 */
+	private long ackLinger = 10;
+
+	/**
+	 * How often an acknowledgement or visibility change SQS failed through no fault
+	 * of ours is retried before it is given up on.
+	 */
+	private int ackRetries = 2;
+
+	/**
+	 * The longest time in milliseconds a &#64;SendTo result or a Qcat4SqsSender
+	 * send waits for others to share its SendMessageBatch call.
+	 */
+	private long sendLinger = 10;
+
+	/**
+	 * How often a send SQS failed through no fault of ours is retried before the
+	 * inbound message is left unacknowledged.
+	 */
+	private int sendRetries = 2;
+
+	/**
+	 * The shortest body in characters that &#64;SendTo(compression) compresses,
+	 * shorter ones hardly shrink and are sent as they are.
+	 */
+	private int compressionThreshold = 1024;
+
+	/**
+	 * The largest body in bytes a compressed message may decompress to. A body
+	 * that would grow past it is not read into memory, the message is handled as
+	 * one that could not be read.
+	 */
+	private int maxDecompressedSize = SqsCompression.MAX_DECOMPRESSED_SIZE;
+
+	/**
+	 * The largest message in bytes, body and attributes, a &#64;SendTo result is
+	 * sent as. Larger ones go to the BlobStore bean, if there is one, and only
+	 * their key is sent.
+	 */
+	private int claimCheckThreshold = 262144;
+
+	/**
+	 * Delete the stored body of a message that came by claim check once it is
+	 * acknowledged. Off by default, which leaves the body to the lifetime the
+	 * BlobStore gives it, as a redelivered copy of the message may still need it.
+	 */
+	private boolean claimCheckDelete = false;
+
+	/**
+	 * Run the listeners left at ThreadMode.DEFAULT on virtual threads. Needs a Java
+	 * 21 or later runtime.
+	 */
+	private boolean virtualThreads = false;
+
+	/**
+	 * How long in milliseconds a shutdown waits for the open receives and the
+	 * messages being handled to finish before the client is closed.
+	 */
+	private long shutdownTimeout = 30000;
+
+	/**
+	 * The size of one thread pool shared by all the listeners on platform threads,
+	 * handing out threads by &#64;ListenTo(poolWeight), listeners below their min
+	 * first and none past its max. The default 0 gives every listener a pool and a
+	 * scheduler of its own.
+	 */
+	private int sharedThreads = 0;
+
+	/**
+	 * How long in milliseconds the URL of a queue name is kept once looked up,
+	 * for listeners, SendTo and Session destinations and Sender sends alike.
+	 */
+	private long queueUrlTtl = 300000;
+
+	/**
+	 * How long in milliseconds a queue name that does not exist is remembered as
+	 * such before it is looked up again.
+	 */
+	private long queueUrlNegativeTtl = 10000;
+
+}
@@ -0,0 +1,113 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.subnoize.qcat.codec.PayloadCodec;
+import net.subnoize.qcat.codec.PayloadCodecs;
+import net.subnoize.qcat.send.Compression;
+import net.subnoize.qcat.send.Sender;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+/**
+ * The Sender of the SQS provider. Sends go out the way &#64;SendTo results do:
+ * written by the codec, compressed and claim checked alike, and sharing the
+ * SendMessageBatch calls, the linger and the retries, so concurrent sends to one
+ * queue go out ten at a time without the caller waiting on anything but its
+ * own future.
+ *
+ * <pre>
+ * <code>
+ * &#64;Autowired
+ * &#64;Qualifier(Qcat4Sqs.SENDER)
+ * private Sender sender;
+ * </code>
+ * </pre>
+ *
+ * @author John Bryant
+ *
+ */
+public class Qcat4SqsSender implements Sender {
+
+	@Autowired
+	private ObjectMapper mapper;
+
+	@Autowired
+	private ObjectProvider<PayloadCodec> codecBeans;
+
+	private final SqsPublisher publisher;
+
+	private final SqsQueueUrlResolver urlResolver;
+
+	private PayloadCodecs codecs;
+
+	// per codec, the encoders of the payload classes sent so far
+	private final Map<PayloadCodec, Map<Class<?>, PayloadCodec.Encoder>> encoders = new ConcurrentHashMap<>();
+
+	Qcat4SqsSender(SqsPublisher publisher, SqsQueueUrlResolver urlResolver) {
+		this.publisher = publisher;
+		this.urlResolver = urlResolver;
+	}
+
+	@PostConstruct
+	public void init() {
+		codecs = new PayloadCodecs(mapper, codecBeans.orderedStream());
+	}
+
+	@Override
+	public CompletableFuture<String> send(String destination, Object payload, Map<String, Object> attributes) {
+		return send(destination, payload, attributes, PayloadCodec.JSON, Compression.NONE);
+	}
+
+	@Override
+	public CompletableFuture<String> send(String destination, Object payload, Map<String, Object> attributes,
+			String codec, Compression compression) {
+		PayloadCodec payloadCodec;
+		String body;
+		try {
+			payloadCodec = codecs.get(codec);
+			body = encoders.computeIfAbsent(payloadCodec, c -> new ConcurrentHashMap<>())
+					.computeIfAbsent(payload != null ? payload.getClass() : Object.class, payloadCodec::encoder)
+					.encode(payload);
+		} catch (IOException | IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		Map<String, MessageAttributeValue> attrs = null;
+		if (attributes != null && !attributes.isEmpty()) {
+			SqsMessageAttributes.Builder builder = SqsMessageAttributes.builder();
+			attributes.forEach(builder::attr);
+			attrs = builder.build();
+		}
+		Map<String, MessageAttributeValue> messageAttributes = attrs;
+		return urlResolver.resolve(destination)
+				.thenCompose(queueUrl -> publisher.publish(queueUrl, body, messageAttributes,
+						payloadCodec.getContentType(), compression == null ? Compression.NONE : compression))
+				.thenApply(SendMessageBatchResultEntry::messageId);
+	}
+}
@@ -16,38 +16,40 @@
 
 package net.subnoize.qcat.sqs;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
 
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.math.NumberUtils;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
-
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.context.ApplicationContext;
 
 import lombok.extern.slf4j.Slf4j;
 import net.subnoize.qcat.Session;
-import net.subnoize.qcat.model.Attribute;
+import net.subnoize.qcat.listen.ThreadMode;
 import software.amazon.awssdk.services.sqs.SqsAsyncClient;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageResponse;
 import software.amazon.awssdk.services.sqs.model.Message;
 import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
 import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
@@ -61,200 +63,834 @@ import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
 @Slf4j
 class Qcat4SqsWorker implements Runnable, RejectedExecutionHandler {
 
+	static final int MAX_MESSAGES = 10;
+
 	@Autowired
 	private SqsAsyncClient asyncClient;
 
 	@Autowired
-	private ObjectMapper mapper;
+	private Qcat4SqsProperties properties;
+
+	@Autowired
+	private ObjectProvider<ConcurrencyController.Factory> controllers;
+
+	@Autowired
+	private ApplicationContext context;
+
+	private Set<CompletableFuture<Integer>> threadHandles = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean running = false;
+
+	private AtomicInteger receiving = new AtomicInteger(0);
+	private AtomicInteger processing = new AtomicInteger(0);
+	private AtomicInteger settling = new AtomicInteger(0);
+	private AtomicInteger pumping = new AtomicInteger(0);
 
-	private List<CompletableFuture<Integer>> threadHandles = new CopyOnWriteArrayList<>();
+	private Source[] sources;
 
-	private boolean running = false;
+	private boolean weighted;
 
-	private DescriptiveStatistics stats = new DescriptiveStatistics();
-	private AtomicInteger taskCounter = new AtomicInteger(0);
-	private int threadCeiling = 0;
+	private double clock = 0;
+
+	private final AtomicInteger turn = new AtomicInteger(0);
+
+	private ConcurrencyController controller;
+
+	private SqsWorkerMetrics metrics = SqsWorkerMetrics.NOOP;
 
 	private ExecutorService executorService;
 	private ScheduledExecutorService scheduleService;
 
 	private SqsExecutionTemplate template;
 
-	Qcat4SqsWorker(SqsExecutionTemplate template) {
+	private SqsAcknowledger acknowledger;
+
+	private SqsSender sender;
+
+	private SqsPublisher publisher;
+
+	private SqsVisibilityChanger visibilityChanger;
+
+	private SqsHeartbeat heartbeat;
+
+	private ScheduledFuture<?> heartbeatTask;
+
+	private SqsExecutionEngine engine;
+
+	private int prefetch = 0;
+
+	private int batch = 0;
+
+	private long prefetchTtl;
+
+	private final AtomicInteger buffered = new AtomicInteger(0);
+
+	private final AtomicInteger runners = new AtomicInteger(0);
+
+	/**
+	 * @param template
+	 * @param acknowledger
+	 * @param sender
+	 * @param publisher
+	 * @param visibilityChanger
+	 * @param engine            the shared threads, null for threads of its own
+	 */
+	Qcat4SqsWorker(SqsExecutionTemplate template, SqsAcknowledger acknowledger, SqsSender sender,
+			SqsPublisher publisher, SqsVisibilityChanger visibilityChanger, SqsExecutionEngine engine) {
 		this.template = template;
-		stats.setWindowSize(100);
+		this.acknowledger = acknowledger;
+		this.sender = sender;
+		this.publisher = publisher;
+		this.visibilityChanger = visibilityChanger;
+		this.engine = engine;
 	}
 
 	@PostConstruct
 	public void init() {
 		running = true;
-		executorService = new ThreadPoolExecutor(template.getTo().min(), template.getTo().max(), 0L,
-				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
-		scheduleService = Executors.newSingleThreadScheduledExecutor();
-		scheduleService.scheduleAtFixedRate(this, 0, template.getTo().polling(), TimeUnit.MILLISECONDS);
+		List<String> urls = template.getQueueUrls();
+		int[] weights = template.getWeights();
+		sources = new Source[urls.size()];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = new Source(urls.get(i), weights != null ? weights[i] : 1);
+		}
+		weighted = weights != null;
+		controller = controllers.getIfAvailable(() -> AimdConcurrencyController::new).create(template.getTo().min(),
+				template.getTo().max());
+		executorService = newExecutorService();
+		metrics = SqsWorkerMetrics.of(context, this);
+		template.setMetrics(metrics);
+		scheduleService = engine != null ? engine.getScheduler() : Executors.newSingleThreadScheduledExecutor();
+		long visibilityMillis = TimeUnit.SECONDS.toMillis(template.getMessageVisibility());
+		if (template.getTo().timeout() > 0 && visibilityMillis > 0) {
+			heartbeat = new SqsHeartbeat(template.getMessageVisibility(), template.getTo().timeout(),
+					visibilityChanger);
+			heartbeatTask = scheduleService.scheduleAtFixedRate(heartbeat, heartbeat.getPeriod(),
+					heartbeat.getPeriod(), TimeUnit.MILLISECONDS);
+		}
+		batch = template.getTo().batch();
+		prefetch = template.getTo().prefetch();
+		if (batch > MAX_MESSAGES && prefetch < batch) {
+			// batches larger than a receive can only be gathered in the buffer
+			prefetch = batch;
+		}
+		if (prefetch > 0) {
+			// a buffered message has to leave its handler at least half a visibility
+			// timeout, or whatever the heartbeat keeps it for
+			prefetchTtl = visibilityMillis == 0 ? Long.MAX_VALUE
+					: Math.max(visibilityMillis, heartbeat != null ? template.getTo().timeout() : 0)
+							- visibilityMillis / 2;
+		}
+		pump();
+	}
+
+	private ExecutorService newExecutorService() {
+		ThreadMode mode = template.getTo().threads();
+		if (mode == ThreadMode.DEFAULT) {
+			mode = properties.isVirtualThreads() ? ThreadMode.VIRTUAL : ThreadMode.PLATFORM;
+		}
+		if (mode == ThreadMode.VIRTUAL) {
+			if (VirtualThreadExecutor.isSupported()) {
+				return new VirtualThreadExecutor(template.getTo().max());
+			}
+			log.warn("Virtual threads are not supported by this runtime, using platform threads for: {}",
+					template.getQueueUrl());
+		}
+		if (engine != null) {
+			return engine.newLane(template.getQueueUrl(), template.getTo().min(), template.getTo().max(),
+					template.getTo().poolWeight());
+		}
+		// core == max so the pool really grows to max in front of an unbounded queue,
+		// idle threads still time out down to nothing
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(template.getTo().max(), template.getTo().max(), 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+		pool.allowCoreThreadTimeOut(true);
+		pool.setRejectedExecutionHandler(this);
+		return pool;
 	}
 
 	/**
-	 * 
+	 * Stop receiving and give the prefetched messages back to the queue. The
+	 * messages already being handled carry on, see awaitDrain.
 	 */
-	public void shutdown() {
+	public void stop() {
 		running = false;
-		scheduleService.shutdown();
-		executorService.shutdown();
 		log.info("Stopping: {}.{}('{}')", this.template.getTarget().getClass().getName(),
 				this.template.getMethod().getName(), this.template.getQueueUrl());
+		giveBackBuffer();
+	}
+
+	/**
+	 * Wait for the open receives to come back and for the handlers to finish,
+	 * including the sends of their results and queuing their acknowledgements.
+	 * Messages a receive brings in after stop are given back right away.
+	 * 
+	 * @param deadline in System.nanoTime terms
+	 * @return true if everything finished in time
+	 * @throws InterruptedException
+	 */
+	public boolean awaitDrain(long deadline) throws InterruptedException {
+		while (!isDrained() && System.nanoTime() < deadline) {
+			giveBackBuffer();
+			Thread.sleep(10);
+		}
+		giveBackBuffer();
+		return isDrained();
+	}
+
+	private boolean isDrained() {
+		return buffered.get() == 0 && processing.get() == 0 && settling.get() == 0
+				&& threadHandles.isEmpty();
+	}
+
+	private void giveBackBuffer() {
+		Received r;
+		while ((r = pollBuffer()) != null) {
+			buffered.decrementAndGet();
+			giveBack(r);
+		}
+	}
+
+	/**
+	 * Stop whatever is still running, drained or not
+	 */
+	public void shutdown() {
+		running = false;
+		if (engine == null) {
+			scheduleService.shutdownNow();
+		} else if (heartbeatTask != null) {
+			heartbeatTask.cancel(false);
+		}
+		executorService.shutdownNow();
+		metrics.close();
 	}
 
 	@Override
 	public void run() {
-		if (running) {
+		pump();
+	}
+
+	/**
+	 * Start as many receives as are due. There is no manager loop: this runs
+	 * whenever a receive comes back or a message is done with, which is when
+	 * another receive may have become due. Concurrent calls collapse into one
+	 * pass plus a repeat for each call that arrived during it.
+	 */
+	private void pump() {
+		if (pumping.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		do {
 			try {
-				if (taskCounter.get() < template.getTo().min() || taskCounter.get() < threadCeiling) {
-					pollServer();
+				Source source;
+				while (running && isPollDue() && (source = nextSource()) != null) {
+					pollServer(source);
 				}
-				manageThreadHandles();
 			} catch (Exception e) {
 				log.error("Message handling errors", e);
 			}
+			missed = pumping.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	/**
+	 * Pump again after the polling period, so a failing or empty short polling
+	 * queue is not hammered with receives
+	 */
+	private void pumpLater() {
+		if (running) {
+			try {
+				scheduleService.schedule(this, template.getTo().polling(), TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// shutting down
+			}
+		}
+	}
+
+	/**
+	 * @return true if there is room for the messages of another receive
+	 */
+	private boolean isPollDue() {
+		if (prefetch > 0) {
+			return getRequestSize() > 0;
+		}
+		return processing.get() < controller.getLimit();
+	}
+
+	/**
+	 * The queue the next receive goes to. An open long poll on a queue that did
+	 * not fill the last receive is already waiting for whatever arrives next,
+	 * stacking more receives behind it would only multiply the empty responses,
+	 * and a short polling queue that came back empty waits out the polling period.
+	 * Without a prefetch buffer only the receives that are expected to come back
+	 * full count against the concurrency limit, so a waiting long poll on one
+	 * queue does not keep the others from being received from. Of the rest, in
+	 * priority order the first queue goes, weighted the one furthest behind its
+	 * share.
+	 * 
+	 * @return the queue, null if none is due
+	 */
+	private Source nextSource() {
+		boolean longPolling = template.getWaitTimeSeconds() > 0;
+		int open = 0;
+		for (Source source : sources) {
+			if (source.full || !longPolling) {
+				open += source.receiving.get();
+			}
+		}
+		if (prefetch == 0 && open >= controller.getLimit()) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		Source next = null;
+		for (Source source : sources) {
+			if (now < source.retryAt || (longPolling && !source.full && source.receiving.get() > 0)) {
+				continue;
+			}
+			if (!weighted) {
+				return source;
+			}
+			if (next == null || Math.max(source.pass, clock) < Math.max(next.pass, clock)) {
+				next = source;
+			}
 		}
+		if (next != null) {
+			// a queue that sat out does not get to catch up on what it missed
+			clock = Math.max(next.pass, clock);
+			next.pass = clock + 1.0 / next.weight;
+		}
+		return next;
 	}
 
 	/**
+	 * Without a prefetch buffer every receive asks for the most SQS hands out, the
+	 * buffer asks only for what it has room for once the open receives are in
 	 * 
+	 * @return the number of messages to ask for
 	 */
-	private void pollServer() {
-		CompletableFuture<Integer> fut = new CompletableFuture<>();
-		executorService.submit(() -> {
+	private int getRequestSize() {
+		if (prefetch > 0) {
+			return Math.min(MAX_MESSAGES, prefetch - buffered.get() - receiving.get() * MAX_MESSAGES);
+		}
+		return batch > 0 ? Math.min(MAX_MESSAGES, batch) : MAX_MESSAGES;
+	}
+
+	/**
+	 * In priority order a queue below the first only gets the threads the
+	 * handlers leave spare, so its messages do not queue up in front of what the
+	 * higher queues receive next
+	 * 
+	 * @param source
+	 * @return the number of messages to ask the queue for
+	 */
+	private int getRequestSize(Source source) {
+		int size = getRequestSize();
+		if (prefetch == 0 && !weighted && source != sources[0]) {
+			size = Math.max(1, Math.min(size, controller.getLimit() - processing.get()));
+		}
+		return size;
+	}
+
+	/**
+	 * Starts a receive without holding a thread while it is open. Only once
+	 * messages arrive is their processing handed to the worker pool, the
+	 * acknowledgements and sends then chain on from there.
+	 */
+	private void pollServer(Source source) {
+		int requested = getRequestSize(source);
+		receiving.incrementAndGet();
+		source.receiving.incrementAndGet();
+		long start = System.nanoTime();
+		CompletableFuture<Integer> fut = asyncClient
+				.receiveMessage(req -> req.queueUrl(source.queueUrl).maxNumberOfMessages(requested)
+						.waitTimeSeconds(template.getWaitTimeSeconds())
+						.visibilityTimeout(template.getVisibilityTimeout())
+						.messageAttributeNames(template.getAttributeNames()))
+				.whenComplete((r, t) -> {
+					receiving.decrementAndGet();
+					source.receiving.decrementAndGet();
+					metrics.received(System.nanoTime() - start, t == null ? r.messages().size() : -1);
+					if (t != null) {
+						source.retryAt = System.currentTimeMillis() + template.getTo().polling();
+						pumpLater();
+					}
+				}).thenCompose(resp -> {
+					CompletableFuture<Integer> handled = dispatch(source, resp, requested);
+					if (resp.messages().isEmpty() && template.getWaitTimeSeconds() == 0) {
+						source.retryAt = System.currentTimeMillis() + template.getTo().polling();
+						pumpLater();
+					} else {
+						pump();
+					}
+					return handled;
+				}).whenComplete((r, t) -> {
+					if (t != null && running) {
+						log.error("Error from server polling", t);
+					}
+				});
+		threadHandles.add(fut);
+		fut.whenComplete((r, t) -> threadHandles.remove(fut));
+	}
+
+	/**
+	 * Fan the messages of a received batch out to the worker pool, one task per
+	 * message, so a slow message does not hold up the rest of its batch. The pool
+	 * size keeps the concurrency within max. With a prefetch buffer the batch goes
+	 * into the buffer instead, for the runners to take from.
+	 * 
+	 * @param source    the queue received from
+	 * @param resp
+	 * @param requested the number of messages asked for
+	 * @return the future of the processing, completing with the message count
+	 */
+	private CompletableFuture<Integer> dispatch(Source source, ReceiveMessageResponse resp, int requested) {
+		controller.onReceive(resp.messages().size(), requested);
+		source.full = resp.messages().size() >= requested;
+		if (resp.messages().isEmpty()) {
+			return CompletableFuture.completedFuture(0);
+		}
+		long now = System.currentTimeMillis();
+		List<Received> messages = new ArrayList<>(resp.messages().size());
+		resp.messages().forEach(m -> messages.add(new Received(source, m, now)));
+		if (!running) {
+			messages.forEach(this::giveBack);
+			return CompletableFuture.completedFuture(0);
+		}
+		if (heartbeat != null) {
+			messages.forEach(r -> heartbeat.track(source.queueUrl, r.message.receiptHandle()));
+		}
+		if (prefetch > 0) {
+			for (Received r : messages) {
+				source.buffer.offer(r);
+				buffered.incrementAndGet();
+			}
+			startRunners();
+			return CompletableFuture.completedFuture(messages.size());
+		}
+		if (batch > 0) {
+			return dispatchBatch(messages);
+		}
+		CompletableFuture<?>[] handled = new CompletableFuture<?>[messages.size()];
+		for (int i = 0; i < handled.length; i++) {
+			Received r = messages.get(i);
+			processing.incrementAndGet();
 			try {
-				taskCounter.addAndGet(1);
-				ReceiveMessageResponse resp = asyncClient.receiveMessage(req -> req.queueUrl(template.getQueueUrl())
-						.maxNumberOfMessages(10).messageAttributeNames(template.getAttributeNames())).get();
-				List<Message> messages = resp.messages();
-				if (!messages.isEmpty()) {
-					processMessages(messages);
+				handled[i] = CompletableFuture.runAsync(() -> {
+					try {
+						processMessage(r);
+					} finally {
+						processing.decrementAndGet();
+						pump();
+					}
+				}, executorService);
+			} catch (RejectedExecutionException e) {
+				processing.decrementAndGet();
+				giveBack(r);
+				handled[i] = CompletableFuture.failedFuture(e);
+			}
+		}
+		return CompletableFuture.allOf(handled).thenApply(v -> handled.length);
+	}
+
+	/**
+	 * Hand a received batch to a batch listener in one go
+	 * 
+	 * @param messages
+	 * @return the future of the processing, completing with the message count
+	 */
+	private CompletableFuture<Integer> dispatchBatch(List<Received> messages) {
+		processing.addAndGet(messages.size());
+		try {
+			return CompletableFuture.runAsync(() -> {
+				try {
+					processBatch(messages);
+				} finally {
+					processing.addAndGet(-messages.size());
+					pump();
 				}
-				fut.complete(messages.size());
-			} catch (Exception e) {
-				if (running) {
-					log.error("Error from server polling thread", e);
+			}, executorService).thenApply(v -> messages.size());
+		} catch (RejectedExecutionException e) {
+			processing.addAndGet(-messages.size());
+			messages.forEach(this::giveBack);
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * Start runners on the prefetch buffer while there are messages in it and the
+	 * concurrency limit leaves room
+	 */
+	private void startRunners() {
+		while (true) {
+			int n = runners.get();
+			if (!running || n >= controller.getLimit() || buffered.get() <= 0) {
+				return;
+			}
+			if (runners.compareAndSet(n, n + 1)) {
+				try {
+					executorService.execute(this::drainBuffer);
+				} catch (RejectedExecutionException e) {
+					runners.decrementAndGet();
+					return;
 				}
-				fut.completeExceptionally(e);
-			} finally {
-				taskCounter.addAndGet(-1);
 			}
-		});
-		threadHandles.add(fut);
+		}
 	}
 
 	/**
-	 * 
+	 * Handle messages from the prefetch buffer until it is empty. Messages that
+	 * waited too long in it are given back to the queue rather than handled this
+	 * late.
 	 */
-	private void manageThreadHandles() {
-		int change = threadHandles.size();
-		threadHandles.forEach(h -> {
-			if (h.isDone()) {
+	private void drainBuffer() {
+		if (batch > 0) {
+			drainBatches();
+			return;
+		}
+		try {
+			Received r;
+			while (running && (r = pollBuffer()) != null) {
+				// counted as processing before it stops counting as buffered, so a drain
+				// never sees it nowhere
+				processing.incrementAndGet();
+				buffered.decrementAndGet();
+				pump();
+				if (System.currentTimeMillis() - r.received > prefetchTtl) {
+					processing.decrementAndGet();
+					giveBack(r);
+					continue;
+				}
 				try {
-					if (!h.isCompletedExceptionally()) {
-						stats.addValue(h.get() * 0.1d);
+					processMessage(r);
+				} finally {
+					processing.decrementAndGet();
+				}
+			}
+		} finally {
+			runners.decrementAndGet();
+		}
+		startRunners();
+	}
+
+	/**
+	 * drainBuffer for a batch listener, every call takes whatever the buffer holds
+	 * up to the batch size rather than waiting for a full batch
+	 */
+	private void drainBatches() {
+		try {
+			while (running) {
+				List<Received> messages = new ArrayList<>(Math.min(batch, buffered.get() + 1));
+				long now = System.currentTimeMillis();
+				Received r;
+				while (messages.size() < batch && (r = pollBuffer()) != null) {
+					processing.incrementAndGet();
+					buffered.decrementAndGet();
+					if (now - r.received > prefetchTtl) {
+						processing.decrementAndGet();
+						giveBack(r);
+					} else {
+						messages.add(r);
 					}
-				} catch (Exception e) {
-					log.error("Error getting results from server polling thread", e);
+				}
+				if (messages.isEmpty()) {
+					break;
+				}
+				pump();
+				try {
+					processBatch(messages);
 				} finally {
-					threadHandles.remove(h);
+					processing.addAndGet(-messages.size());
 				}
 			}
-		});
-		if (change < threadHandles.size()) {
-			calculateThreadCeiling();
+		} finally {
+			runners.decrementAndGet();
 		}
+		startRunners();
 	}
 
 	/**
+	 * Take the next message from the prefetch buffers, in priority order the one
+	 * of the highest queue, weighted from each queue in turn
 	 * 
+	 * @return the message, null if the buffers are empty
 	 */
-	private void calculateThreadCeiling() {
-
-		if (stats.getMean() == Double.NaN) {
-			threadCeiling = template.getTo().min();
+	private Received pollBuffer() {
+		int first = weighted ? Math.floorMod(turn.getAndIncrement(), sources.length) : 0;
+		for (int i = 0; i < sources.length; i++) {
+			Received r = sources[(first + i) % sources.length].buffer.poll();
+			if (r != null) {
+				return r;
+			}
 		}
+		return null;
+	}
 
-		double newThreadCeiling = template.getTo().max() * stats.getMean();
-
-		if (newThreadCeiling < template.getTo().min()) {
-			newThreadCeiling = template.getTo().min();
-		}
+	/**
+	 * Make an unhandled message visible on the queue again right away
+	 * 
+	 * @param r
+	 */
+	private void giveBack(Received r) {
+		release(r);
+		visibilityChanger.change(r.source.queueUrl, r.message.receiptHandle(), 0).whenComplete((v, t) -> {
+			if (t != null) {
+				log.warn("Unable to give back message {}: {}", r.message.messageId(), t.getMessage());
+			}
+		});
+	}
 
-		int rounded = (int) Math.round(newThreadCeiling);
 
-		if (rounded != threadCeiling) {
-			log.info("Thread Ceiling: {}", rounded);
-			threadCeiling = rounded;
+	/**
+	 * Handle one message, its acknowledgement follows once its result is sent
+	 * 
+	 * @param r
+	 */
+	private void processMessage(Received r) {
+		Message m = r.message;
+		long start = System.nanoTime();
+		boolean failed = true;
+		settling.incrementAndGet();
+		try {
+			Session<Message> session = template.newSession(m);
+			CompletableFuture<?> sent = handleMessage(session);
+			failed = session.isError();
+			sent.whenComplete((result, t) -> {
+				release(r);
+				try {
+					if (t != null) {
+						log.error("Error sending result of message: {}", m.messageId(), t);
+					} else if (session.isAcknowledge()) {
+						long acked = System.nanoTime();
+						acknowledger.add(r.source.queueUrl, m.receiptHandle()).whenComplete((v, e) -> {
+							metrics.acknowledged(System.nanoTime() - acked, e != null);
+							if (e == null) {
+								discard(m);
+							}
+						});
+					}
+				} finally {
+					settling.decrementAndGet();
+				}
+			});
+		} catch (Exception e) {
+			release(r);
+			settling.decrementAndGet();
+			log.error("Error while handling messages", e);
+		} finally {
+			long nanos = System.nanoTime() - start;
+			controller.onHandled(nanos, failed);
+			metrics.handled(nanos, failed);
+			MDC.clear();
 		}
 	}
 
 	/**
+	 * Handle a batch with one call of a batch listener. Once the results are sent
+	 * every message is acknowledged whose Session still asks for it, the ones that
+	 * could not be read included, just as with one message per call. An exception
+	 * from the listener leaves the whole batch.
 	 * 
 	 * @param messages
 	 */
-	private void processMessages(List<Message> messages) {
-		messages.forEach(m -> {
-			try {
-				Session<Message> session = template.newSession(m);
-				handleMessage(session);
-				if (session.isAcknowledge()) {
-					DeleteMessageResponse result = asyncClient
-							.deleteMessage(del -> del.queueUrl(template.getQueueUrl()).receiptHandle(m.receiptHandle()))
-							.get();
-					if (200 != result.sdkHttpResponse().statusCode()) {
-						log.info("Delete: {} {}", result.sdkHttpResponse().statusText(),
-								result.sdkHttpResponse().statusCode());
+	private void processBatch(List<Received> messages) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		settling.incrementAndGet();
+		try {
+			List<Session<Message>> sessions = new ArrayList<>(messages.size());
+			messages.forEach(r -> sessions.add(template.newSession(r.message)));
+			Object[] args = template.bindBatch(sessions);
+			CompletableFuture<?> sent = CompletableFuture.completedFuture(null);
+			Session<Message> first = sessions.stream().filter(session -> !session.isError()).findFirst()
+					.orElse(null);
+			if (first != null) {
+				sent = sendResult(template.invoke(args), first);
+				failed = false;
+			}
+			sent.whenComplete((r, t) -> {
+				messages.forEach(this::release);
+				try {
+					if (t != null) {
+						log.error("Error sending results of batch on: {}", template.getQueueUrl(), t);
+						return;
 					}
+					for (int i = 0; i < sessions.size(); i++) {
+						Session<Message> session = sessions.get(i);
+						if (session.isError()) {
+							log.error("Error: {} ({})", session.getErrorDescription(), session.getErrorCode());
+						}
+						if (session.isAcknowledge()) {
+							long acked = System.nanoTime();
+							Message m = messages.get(i).message;
+							acknowledger.add(messages.get(i).source.queueUrl, m.receiptHandle()).whenComplete((v, e) -> {
+								metrics.acknowledged(System.nanoTime() - acked, e != null);
+								if (e == null) {
+									discard(m);
+								}
+							});
+						}
+					}
+				} finally {
+					settling.decrementAndGet();
 				}
-				MDC.clear();
-			} catch (Exception e) {
-				log.error("Error while handling messages", e);
+			});
+		} catch (Exception e) {
+			messages.forEach(this::release);
+			settling.decrementAndGet();
+			log.error("Error while handling batch on: {}", template.getQueueUrl(), e);
+		} finally {
+			long nanos = System.nanoTime() - start;
+			controller.onHandled(nanos, failed);
+			metrics.handled(nanos, failed);
+			MDC.clear();
+		}
+	}
+
+	/**
+	 * Send what a batch listener returned, a Collection as a message per element
+	 * 
+	 * @param ret
+	 * @param session the first of the batch that could be read, its destination
+	 *                and attributes go with the results
+	 * @return the future of all the sends
+	 * @throws IOException
+	 */
+	private CompletableFuture<?> sendResult(Object ret, Session<Message> session) throws IOException {
+		if (ret == null || !template.isSendToPresent()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		Collection<?> results = ret instanceof Collection ? (Collection<?>) ret : Collections.singleton(ret);
+		Map<String, MessageAttributeValue> attributes = getAttributes(session);
+		List<CompletableFuture<?>> sends = new ArrayList<>(results.size());
+		long start = System.nanoTime();
+		for (Object result : results) {
+			if (result instanceof SendMessageRequest) {
+				sends.add(sender.send((SendMessageRequest) result));
+			} else if (result != null) {
+				sends.add(send(session.getDestination(), template.encode(result), attributes));
 			}
-		});
+		}
+		return CompletableFuture.allOf(sends.toArray(new CompletableFuture[0]))
+				.whenComplete((r, t) -> metrics.sent(System.nanoTime() - start, t != null));
 	}
 
 	/**
-	 * Actually handle the individual messages
+	 * Actually handle the individual messages. Any result for a SendTo is handed to
+	 * the batching sender rather than sent from this thread.
 	 * 
 	 * @param session
-	 * @param m
-	 * @throws JsonProcessingException
+	 * @return the future of the outbound message, already complete if there is
+	 *         none
+	 * @throws IOException
 	 * @throws IllegalAccessException
 	 * @throws InvocationTargetException
-	 * @throws InterruptedException
-	 * @throws ExecutionException
 	 */
-	private void handleMessage(Session<Message> session) throws JsonProcessingException, IllegalAccessException,
-			InvocationTargetException, InterruptedException, ExecutionException {
-		Object[] params = parseParams(session);
-		if (params.length == template.getParameters().length) {
-			Object ret = template.invoke(params);
-			if (session.isError()) {
-				log.error("Error: {} ({})", session.getErrorDescription(), session.getErrorCode());
-			}
-			if (ret == null) {
-				return;
+	private CompletableFuture<?> handleMessage(Session<Message> session)
+			throws IOException, IllegalAccessException, InvocationTargetException {
+		Object ret = template.invoke(template.bind(session));
+		if (session.isError()) {
+			log.error("Error: {} ({})", session.getErrorDescription(), session.getErrorCode());
+		}
+		if (ret != null && template.isSendToPresent()) {
+			long start = System.nanoTime();
+			CompletableFuture<?> sent;
+			if (ret instanceof SendMessageRequest) {
+				sent = sender.send((SendMessageRequest) ret);
+			} else {
+				sent = send(session.getDestination(), template.encode(ret), getAttributes(session));
 			}
-			if (template.isSendToPresent()) {
-				if (ret instanceof SendMessageRequest) {
-					asyncClient.sendMessage((SendMessageRequest) ret).get();
-				} else {
-					String body = null;
-					if (template.isSendToAsString()) {
-						body = ret.toString();
-					} else {
-						body = mapper.writeValueAsString(ret);
-					}
-					asyncClient.sendMessage(SendMessageRequest.builder().queueUrl(session.getDestination())
-							.messageBody(body).messageAttributes(getAttributes(session)).build()).get();
+			return sent.whenComplete((r, t) -> metrics.sent(System.nanoTime() - start, t != null));
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Send a result to a queue name or URL, a name as the provider's resolver has
+	 * it cached, so a Session destination set by name costs no extra round trip
+	 * 
+	 * @param destination
+	 * @param body
+	 * @param attributes  may be null, left as it is
+	 * @return the future of the send
+	 */
+	private CompletableFuture<?> send(String destination, String body, Map<String, MessageAttributeValue> attributes) {
+		return template.getUrlResolver().resolve(destination)
+				.thenCompose(queueUrl -> sendResolved(queueUrl, body, attributes));
+	}
+
+	/**
+	 * Hand a result to the publisher, which marks, compresses and claim checks it
+	 * as the SendTo asks
+	 * 
+	 * @param queueUrl
+	 * @param body
+	 * @param attributes may be null, left as it is
+	 * @return the future of the send
+	 */
+	private CompletableFuture<?> sendResolved(String queueUrl, String body,
+			Map<String, MessageAttributeValue> attributes) {
+		return publisher.publish(queueUrl, body, attributes, template.getResultCodec().getContentType(),
+				template.getCompression());
+	}
+
+	/**
+	 * Remove the stored body of an acknowledged message that came by claim check,
+	 * if qcat.sqs.claim-check-delete asks for it
+	 * 
+	 * @param m the message as received
+	 */
+	private void discard(Message m) {
+		String key = SqsClaimCheck.keyOf(m);
+		if (key != null && properties.isClaimCheckDelete() && template.getBlobStore() != null) {
+			template.getBlobStore().delete(key).whenComplete((v, t) -> {
+				if (t != null) {
+					log.warn("Unable to delete the stored body of message: {} {}", m.messageId(), t.toString());
 				}
-			}
+			});
+		}
+	}
+
+	/**
+	 * Stop keeping a message invisible, from here on its acknowledgement or the
+	 * visibility timeout decides what happens to it
+	 * 
+	 * @param r
+	 */
+	private void release(Received r) {
+		if (heartbeat != null) {
+			heartbeat.release(r.message.receiptHandle());
 		}
+	}
 
+	SqsExecutionTemplate getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @return the messages being handled or waiting for a thread
+	 */
+	int getInFlight() {
+		return processing.get();
+	}
+
+	/**
+	 * @return the messages waiting for a thread, in the prefetch buffer or the
+	 *         executor
+	 */
+	int getQueueDepth() {
+		if (executorService instanceof ThreadPoolExecutor) {
+			return buffered.get() + ((ThreadPoolExecutor) executorService).getQueue().size();
+		} else if (executorService instanceof VirtualThreadExecutor) {
+			return buffered.get() + ((VirtualThreadExecutor) executorService).getQueueLength();
+		} else if (executorService instanceof SqsExecutionEngine.Lane) {
+			return buffered.get() + ((SqsExecutionEngine.Lane) executorService).getQueueLength();
+		}
+		return buffered.get();
+	}
+
+	int getConcurrencyLimit() {
+		return controller.getLimit();
 	}
 
 	private Map<String, MessageAttributeValue> getAttributes(Session<Message> session) {
@@ -266,81 +902,56 @@ class Qcat4SqsWorker implements Runnable, RejectedExecutionHandler {
 		return builder.build();
 	}
 
-	private Object[] parseParams(Session<Message> session) throws JsonProcessingException {
-		Object[] params = new Object[template.getParameters().length];
-		for (int i = 0; i < params.length; i++) {
-			Parameter p = template.getParameters()[i];
-			if (p.getType() == Session.class) {
-				params[i] = session;
-			} else if (p.equals(template.getPayload())) {
-				if (p.getType() == Message.class) {
-					params[i] = p.getType().cast(Message.class);
-				} else if (p.getType() == String.class) {
-					params[i] = session.getRequest().body();
-				} else {
-					try {
-						params[i] = mapper.readValue(session.getRequest().body(), template.getPayload().getType());
-					} catch (JsonProcessingException e) {
-						if (session != null) {
-							params[i] = null;
-							session.setError(true);
-							session.setErrorCode(500);
-							session.setErrorDescription(e.getMessage());
-							log.error("Error parsing object: {} Exception: {}", session.getRequest().body(),
-									e.getMessage());
-						} else {
-							throw e;
-						}
-					}
-				}
-			} else if (p.isAnnotationPresent(Attribute.class)) {
-				Attribute attr = p.getAnnotation(Attribute.class);
-				MessageAttributeValue v = session.getRequest().messageAttributes().get(attr.value());
-				if (v != null) {
-					params[i] = v.stringValue();
-				} else {
-					params[i] = null;
-				}
-			} else {
-				params[i] = null;
-			}
+	/**
+	 * A received message, the queue it came from and when it was received
+	 */
+	private static final class Received {
+
+		private final Source source;
+
+		private final Message message;
+
+		private final long received;
+
+		private Received(Source source, Message message, long received) {
+			this.source = source;
+			this.message = message;
+			this.received = received;
 		}
-		if (StringUtils.isNotBlank(template.getTo().transactionId())) {
-			MessageAttributeValue v = session.getRequest().messageAttributes().get(template.getTo().transactionId());
-			if (v != null) {
-				MDC.put(template.getTo().transactionId(), v.stringValue());
-				switch (v.dataType()) {
-				case "String":
-					session.getAttributes().put(template.getTo().transactionId(), v.stringValue());
-					break;
-				case "Number":
-					if (NumberUtils.isParsable(v.stringValue())) {
-						if (v.stringValue().contains(".")) {
-							session.getAttributes().put(template.getTo().transactionId(),
-									Double.parseDouble(v.stringValue()));
-						} else {
-							session.getAttributes().put(template.getTo().transactionId(),
-									Long.parseLong(v.stringValue()));
-						}
-					} else {
-						session.getAttributes().put(template.getTo().transactionId(), v.stringValue());
-					}
-					break;
-				default:
-					session.getAttributes().put(template.getTo().transactionId(), v.binaryValue().asByteArray());
-					break;
-				}
+	}
 
-			} else {
-				// auto create?
-			}
+	/**
+	 * One of the queues of the listener and how receiving from it goes
+	 */
+	private static final class Source {
+
+		private final String queueUrl;
+
+		private final int weight;
+
+		private final AtomicInteger receiving = new AtomicInteger(0);
+
+		private final Queue<Received> buffer = new ConcurrentLinkedQueue<>();
+
+		private volatile boolean full = true;
+
+		private volatile long retryAt = 0;
+
+		// only touched by the one pump running at a time
+		private double pass = 0;
+
+		private Source(String queueUrl, int weight) {
+			this.queueUrl = queueUrl;
+			this.weight = weight;
 		}
-		return params;
 	}
 
 	@Override
 	public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-		log.error("{} : has been rejected", r.toString());
+		if (running) {
+			log.error("{} : has been rejected", r.toString());
+		}
+		throw new RejectedExecutionException("Worker is shut down: " + template.getQueueUrl());
 	}
 
 }
@@ -0,0 +1,52 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+
+/**
+ * Collects receipt handles of acknowledged messages from all the workers and
+ * deletes them with DeleteMessageBatch instead of one DeleteMessage per
+ * message.
+ *
+ * @author John Bryant
+ *
+ */
+class SqsAcknowledger extends SqsBatcher<String, Void> {
+
+	SqsAcknowledger(SqsAsyncClient asyncClient, ScheduledExecutorService scheduler, long linger, int maxRetries) {
+		super(asyncClient, scheduler, linger, maxRetries);
+	}
+
+	@Override
+	protected CompletableFuture<Outcome<Void>> execute(String queueUrl, Map<String, String> entries) {
+		return asyncClient.deleteMessageBatch(b -> b.queueUrl(queueUrl)
+				.entries(entries.entrySet().stream().map(e -> DeleteMessageBatchRequestEntry.builder().id(e.getKey())
+						.receiptHandle(e.getValue()).build()).collect(Collectors.toList())))
+				.thenApply(resp -> {
+					Outcome<Void> outcome = new Outcome<>(resp.failed());
+					resp.successful().forEach(s -> outcome.success(s.id(), null));
+					return outcome;
+				});
+	}
+}
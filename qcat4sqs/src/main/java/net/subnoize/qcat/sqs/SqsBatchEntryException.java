@@ -0,0 +1,45 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import lombok.Getter;
+
+/**
+ * Raised through the future of a single batch entry that SQS refused to
+ * process.
+ *
+ * @author John Bryant
+ *
+ */
+@Getter
+public class SqsBatchEntryException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String queueUrl;
+
+	private final String code;
+
+	private final boolean senderFault;
+
+	public SqsBatchEntryException(String queueUrl, String code, boolean senderFault, String message) {
+		super(code + " (" + queueUrl + "): " + message);
+		this.queueUrl = queueUrl;
+		this.code = code;
+		this.senderFault = senderFault;
+	}
+}
@@ -0,0 +1,323 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+
+/**
+ * Accumulates entries per queue URL from any number of threads and sends them
+ * to SQS as batch requests. A batch is sent when it holds the SQS maximum of 10
+ * entries, when the next entry would push it over the byte limit or when the
+ * linger period of the first entry has passed, whichever comes first.
+ * <p>
+ * Every entry gets its own future which completes once SQS has answered for
+ * that entry. Entries SQS rejects through no fault of the sender are retried in
+ * a later batch, and so are the entries of a request that failed as a whole
+ * unless SQS refused it as a client fault. Everything else is logged and fails
+ * the entry's future.
+ *
+ * @author John Bryant
+ *
+ * @param <E> the entry type being batched
+ * @param <R> the per-entry result type
+ */
+@Slf4j
+abstract class SqsBatcher<E, R> {
+
+	static final int MAX_ENTRIES = 10;
+
+	protected final SqsAsyncClient asyncClient;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final long linger;
+
+	private final int maxRetries;
+
+	private final Map<String, Accumulator> accumulators = new ConcurrentHashMap<>();
+
+	SqsBatcher(SqsAsyncClient asyncClient, ScheduledExecutorService scheduler, long linger, int maxRetries) {
+		this.asyncClient = asyncClient;
+		this.scheduler = scheduler;
+		this.linger = linger;
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Queue an entry for the next batch to the given queue
+	 *
+	 * @param queueUrl
+	 * @param entry
+	 * @return the future for this entry alone
+	 */
+	public CompletableFuture<R> add(String queueUrl, E entry) {
+		Pending<E, R> pending = new Pending<>(entry, sizeOf(entry));
+		enqueue(queueUrl, pending);
+		return pending.future;
+	}
+
+	/**
+	 * Send everything that is waiting for its linger period right away.
+	 *
+	 * @return a future that completes when all the sent batches have been answered
+	 */
+	public CompletableFuture<Void> flush() {
+		List<CompletableFuture<R>> futures = new ArrayList<>();
+		accumulators.values().forEach(acc -> {
+			List<Pending<E, R>> ready = acc.drain();
+			if (!ready.isEmpty()) {
+				ready.forEach(p -> futures.add(p.future));
+				dispatch(acc.queueUrl, ready);
+			}
+		});
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+	}
+
+	/**
+	 * The number of bytes an entry counts against {@link #maxBytes()}
+	 *
+	 * @param entry
+	 * @return the size in bytes
+	 */
+	protected int sizeOf(E entry) {
+		return 0;
+	}
+
+	/**
+	 * The upper limit of the summed entry sizes of one batch
+	 *
+	 * @return the size in bytes
+	 */
+	protected int maxBytes() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Send one batch. The key of the map is the entry id which has to be echoed
+	 * back in the outcome.
+	 *
+	 * @param queueUrl
+	 * @param entries
+	 * @return the outcome of the batch request
+	 */
+	protected abstract CompletableFuture<Outcome<R>> execute(String queueUrl, Map<String, E> entries);
+
+	private void enqueue(String queueUrl, Pending<E, R> pending) {
+		List<Pending<E, R>> ready = accumulators.computeIfAbsent(queueUrl, Accumulator::new).offer(pending);
+		if (ready != null) {
+			dispatch(queueUrl, ready);
+		}
+	}
+
+	private void dispatch(String queueUrl, List<Pending<E, R>> batch) {
+		Map<String, Pending<E, R>> byId = new HashMap<>();
+		Map<String, E> entries = new HashMap<>();
+		for (int i = 0; i < batch.size(); i++) {
+			String id = Integer.toString(i);
+			byId.put(id, batch.get(i));
+			entries.put(id, batch.get(i).entry);
+		}
+		CompletableFuture<Outcome<R>> fut;
+		try {
+			fut = execute(queueUrl, entries);
+		} catch (Exception e) {
+			fut = CompletableFuture.failedFuture(e);
+		}
+		fut.whenComplete((outcome, t) -> {
+			if (t != null) {
+				Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+				boolean retryable = !isClientFault(cause);
+				int failed = 0;
+				for (Pending<E, R> p : batch) {
+					if (!retry(queueUrl, p, retryable)) {
+						failed++;
+						p.future.completeExceptionally(cause);
+					}
+				}
+				if (failed > 0) {
+					log.error("Batch request to {} failed for {} entries", queueUrl, failed, cause);
+				} else {
+					log.debug("Retrying {} batch entries to {} after: {}", batch.size(), queueUrl, cause.toString());
+				}
+				return;
+			}
+			outcome.successful.forEach((id, result) -> {
+				Pending<E, R> p = byId.remove(id);
+				if (p != null) {
+					p.future.complete(result);
+				}
+			});
+			outcome.failed.forEach(err -> {
+				Pending<E, R> p = byId.remove(err.id());
+				if (p != null) {
+					retryOrFail(queueUrl, p, err);
+				}
+			});
+			byId.values().forEach(p -> p.future
+					.completeExceptionally(new SqsBatchEntryException(queueUrl, "MissingResult", false, null)));
+		});
+	}
+
+	private void retryOrFail(String queueUrl, Pending<E, R> p, BatchResultErrorEntry err) {
+		if (retry(queueUrl, p, !Boolean.TRUE.equals(err.senderFault()))) {
+			log.debug("Retrying batch entry to {} after {}: {}", queueUrl, err.code(), err.message());
+		} else {
+			log.error("Batch entry to {} failed: {} {}", queueUrl, err.code(), err.message());
+			p.future.completeExceptionally(
+					new SqsBatchEntryException(queueUrl, err.code(), Boolean.TRUE.equals(err.senderFault()), err.message()));
+		}
+	}
+
+	/**
+	 * Put an entry back for a later batch while it has attempts left
+	 *
+	 * @param queueUrl
+	 * @param p
+	 * @param retryable whether the failure may go away on its own
+	 * @return true if the entry was put back, false if it has to fail
+	 */
+	private boolean retry(String queueUrl, Pending<E, R> p, boolean retryable) {
+		if (!retryable || p.attempts >= maxRetries) {
+			return false;
+		}
+		p.attempts++;
+		enqueue(queueUrl, p);
+		return true;
+	}
+
+	/**
+	 * A request SQS refused because of what was sent, which no retry can fix.
+	 * Throttling is the one 4xx answer that is not the sender's fault.
+	 *
+	 * @param t the failure of the whole request
+	 * @return true if the request must not be retried
+	 */
+	static boolean isClientFault(Throwable t) {
+		if (t instanceof SdkServiceException) {
+			SdkServiceException e = (SdkServiceException) t;
+			return e.statusCode() >= 400 && e.statusCode() < 500 && !e.isThrottlingException();
+		}
+		return false;
+	}
+
+	/**
+	 * The per queue collection point for entries waiting on a batch
+	 */
+	private final class Accumulator {
+
+		private final String queueUrl;
+
+		private List<Pending<E, R>> pending = new ArrayList<>(MAX_ENTRIES);
+
+		private int bytes = 0;
+
+		private ScheduledFuture<?> timer;
+
+		private Accumulator(String queueUrl) {
+			this.queueUrl = queueUrl;
+		}
+
+		private synchronized List<Pending<E, R>> offer(Pending<E, R> p) {
+			List<Pending<E, R>> ready = null;
+			if (!pending.isEmpty() && bytes + p.size > maxBytes()) {
+				ready = drain();
+			}
+			pending.add(p);
+			bytes += p.size;
+			if (pending.size() >= MAX_ENTRIES) {
+				ready = drain();
+			} else if (timer == null) {
+				timer = scheduler.schedule(this::expire, linger, TimeUnit.MILLISECONDS);
+			}
+			return ready;
+		}
+
+		private synchronized List<Pending<E, R>> drain() {
+			if (timer != null) {
+				timer.cancel(false);
+				timer = null;
+			}
+			List<Pending<E, R>> ready = pending;
+			pending = new ArrayList<>(MAX_ENTRIES);
+			bytes = 0;
+			return ready;
+		}
+
+		private void expire() {
+			List<Pending<E, R>> ready;
+			synchronized (this) {
+				timer = null;
+				ready = pending.isEmpty() ? null : drain();
+			}
+			if (ready != null) {
+				dispatch(queueUrl, ready);
+			}
+		}
+	}
+
+	private static final class Pending<E, R> {
+
+		private final E entry;
+
+		private final int size;
+
+		private final CompletableFuture<R> future = new CompletableFuture<>();
+
+		private int attempts = 0;
+
+		private Pending(E entry, int size) {
+			this.entry = entry;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * The per entry result of a batch request keyed by entry id
+	 *
+	 * @param <R>
+	 */
+	static final class Outcome<R> {
+
+		private final Map<String, R> successful = new HashMap<>();
+
+		private final Collection<BatchResultErrorEntry> failed;
+
+		Outcome(Collection<BatchResultErrorEntry> failed) {
+			this.failed = failed;
+		}
+
+		Outcome<R> success(String id, R result) {
+			successful.put(id, result);
+			return this;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+import net.subnoize.qcat.blob.BlobStore;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+/**
+ * Swaps bodies too large for SQS for their key in a BlobStore and back. The
+ * message of an offloaded body carries the key as its body and the
+ * qcat.claim-check message attribute with the size of the original, every
+ * other attribute travels as usual.
+ *
+ * @author John Bryant
+ *
+ */
+final class SqsClaimCheck {
+
+	static final String ATTRIBUTE = "qcat.claim-check";
+
+	private SqsClaimCheck() {
+		super();
+	}
+
+	/**
+	 * @param store
+	 * @param body
+	 * @param attributes may be null, left as it is
+	 * @param send       sends the claim check with the attributes to go with it
+	 * @return the future of the send, after the body is stored
+	 */
+	static <T> CompletableFuture<T> offload(BlobStore store, String body, Map<String, MessageAttributeValue> attributes,
+			BiFunction<String, Map<String, MessageAttributeValue>, CompletableFuture<T>> send) {
+		Map<String, MessageAttributeValue> attrs = attributes == null ? new HashMap<>() : new HashMap<>(attributes);
+		attrs.put(ATTRIBUTE, MessageAttributeValue.builder().dataType("Number")
+				.stringValue(Integer.toString(SqsSender.utf8Length(body))).build());
+		return store.put(StandardCharsets.UTF_8.encode(body)).thenCompose(key -> send.apply(key, attrs));
+	}
+
+	/**
+	 * @param store
+	 * @param m     a message carrying a claim check
+	 * @return the future of the message with the stored body in place of the key
+	 */
+	static CompletableFuture<Message> redeem(BlobStore store, Message m) {
+		return store.get(m.body()).thenApply(content -> {
+			Map<String, MessageAttributeValue> attrs = new HashMap<>(m.messageAttributes());
+			attrs.remove(ATTRIBUTE);
+			return m.toBuilder().body(StandardCharsets.UTF_8.decode(content).toString()).messageAttributes(attrs)
+					.build();
+		});
+	}
+
+	/**
+	 * @param m
+	 * @return the key of the stored body, null if the message carries its own
+	 */
+	static String keyOf(Message m) {
+		return m.hasMessageAttributes() && m.messageAttributes().containsKey(ATTRIBUTE) ? m.body() : null;
+	}
+}
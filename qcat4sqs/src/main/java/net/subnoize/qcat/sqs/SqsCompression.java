@@ -0,0 +1,304 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import net.subnoize.qcat.send.Compression;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+/**
+ * Compresses and decompresses message bodies. SQS bodies are text, so the
+ * compressed bytes travel base64 encoded and the qcat.content-encoding message
+ * attribute names the compression.
+ * <p>
+ * The Deflaters and Inflaters hold native memory that is expensive to set up
+ * for every message, they and their buffers are kept in a pool and reset
+ * between uses rather than made anew. The pool keeps no more codecs than there
+ * are processors, the ones a burst of concurrent sends leaves over are ended
+ * so their native memory is freed right away rather than by the GC.
+ *
+ * @author John Bryant
+ *
+ */
+final class SqsCompression {
+
+	static final String ATTRIBUTE = "qcat.content-encoding";
+
+	static final int MAX_DECOMPRESSED_SIZE = 16 * 1024 * 1024;
+
+	private static final int INITIAL_BUFFER = 64 * 1024;
+
+	// buffers grown past this by one odd message are not kept
+	private static final int MAX_POOLED_BUFFER = 1024 * 1024;
+
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private static final int MAX_POOLED = Runtime.getRuntime().availableProcessors();
+
+	private static final Queue<Codec> POOL = new ConcurrentLinkedQueue<>();
+
+	// the size of the POOL, which the queue can only count by walking it
+	private static final AtomicInteger POOLED = new AtomicInteger();
+
+	private SqsCompression() {
+		super();
+	}
+
+	/**
+	 * @param compression
+	 * @return the attribute that marks a body compressed this way
+	 */
+	static MessageAttributeValue attribute(Compression compression) {
+		return MessageAttributeValue.builder().dataType("String")
+				.stringValue(compression.name().toLowerCase(Locale.ROOT)).build();
+	}
+
+	/**
+	 * @param body
+	 * @param compression GZIP or DEFLATE
+	 * @return the compressed and base64 encoded body, null if that would not be
+	 *         smaller than the body itself
+	 */
+	static String compress(String body, Compression compression) {
+		byte[] in = body.getBytes(StandardCharsets.UTF_8);
+		Codec codec = take();
+		try {
+			int len = compression == Compression.GZIP ? codec.gzip(in) : codec.deflate(codec.zlib, in, 0);
+			// base64 grows it by a third
+			if ((len + 2) / 3 * 4 >= in.length) {
+				return null;
+			}
+			ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(codec.out, 0, len));
+			return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1);
+		} finally {
+			give(codec);
+		}
+	}
+
+	/**
+	 * @param body     the base64 encoded body
+	 * @param encoding the value of the qcat.content-encoding attribute
+	 * @param maxSize  the most bytes the body may decompress to
+	 * @return the original body
+	 * @throws ZipException if the body is not what the encoding says or would
+	 *                      decompress to more than maxSize bytes
+	 */
+	static String decompress(String body, String encoding, int maxSize) throws ZipException {
+		byte[] in;
+		try {
+			in = Base64.getDecoder().decode(body);
+		} catch (IllegalArgumentException e) {
+			throw new ZipException("Body is not base64: " + e.getMessage());
+		}
+		Codec codec = take();
+		try {
+			int len;
+			if ("gzip".equalsIgnoreCase(encoding)) {
+				len = codec.gunzip(in, maxSize);
+			} else if ("deflate".equalsIgnoreCase(encoding)) {
+				len = codec.inflate(codec.zlibInflater, in, 0, in.length, maxSize);
+			} else {
+				throw new ZipException("Unknown content encoding: " + encoding);
+			}
+			return new String(codec.out, 0, len, StandardCharsets.UTF_8);
+		} catch (DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		} finally {
+			give(codec);
+		}
+	}
+
+	private static Codec take() {
+		Codec codec = POOL.poll();
+		if (codec == null) {
+			return new Codec();
+		}
+		POOLED.decrementAndGet();
+		return codec;
+	}
+
+	private static void give(Codec codec) {
+		if (POOLED.incrementAndGet() > MAX_POOLED) {
+			POOLED.decrementAndGet();
+			codec.end();
+			return;
+		}
+		if (codec.out.length > MAX_POOLED_BUFFER) {
+			codec.out = new byte[INITIAL_BUFFER];
+		}
+		POOL.offer(codec);
+	}
+
+	/**
+	 * @return the number of codecs waiting in the pool
+	 */
+	static int pooled() {
+		return POOLED.get();
+	}
+
+	/**
+	 * The compression state and output buffer of one use at a time
+	 */
+	private static final class Codec {
+
+		private final Deflater raw = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+		private final Deflater zlib = new Deflater(Deflater.DEFAULT_COMPRESSION, false);
+
+		private final Inflater rawInflater = new Inflater(true);
+
+		private final Inflater zlibInflater = new Inflater(false);
+
+		private final CRC32 crc = new CRC32();
+
+		private byte[] out = new byte[INITIAL_BUFFER];
+
+		/**
+		 * Free the native memory, the codec can not be used after
+		 */
+		private void end() {
+			raw.end();
+			zlib.end();
+			rawInflater.end();
+			zlibInflater.end();
+		}
+
+		private int gzip(byte[] in) {
+			System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+			int len = deflate(raw, in, GZIP_HEADER.length);
+			crc.reset();
+			crc.update(in);
+			ensure(len + 8);
+			len = writeInt(len, (int) crc.getValue());
+			return writeInt(len, in.length);
+		}
+
+		private int deflate(Deflater deflater, byte[] in, int offset) {
+			deflater.reset();
+			deflater.setInput(in);
+			deflater.finish();
+			int len = offset;
+			while (!deflater.finished()) {
+				ensure(len + 1);
+				len += deflater.deflate(out, len, out.length - len);
+			}
+			return len;
+		}
+
+		private int gunzip(byte[] in, int maxSize) throws DataFormatException, ZipException {
+			if (in.length < 18 || in[0] != 0x1f || in[1] != (byte) 0x8b || in[2] != Deflater.DEFLATED) {
+				throw new ZipException("Not in GZIP format");
+			}
+			int flags = in[3];
+			int pos = 10;
+			if ((flags & FEXTRA) != 0) {
+				if (pos + 2 > in.length) {
+					throw new ZipException("Corrupt GZIP header");
+				}
+				pos += 2 + ((in[pos] & 0xff) | (in[pos + 1] & 0xff) << 8);
+			}
+			if ((flags & FNAME) != 0) {
+				pos = skipString(in, pos);
+			}
+			if ((flags & FCOMMENT) != 0) {
+				pos = skipString(in, pos);
+			}
+			if ((flags & FHCRC) != 0) {
+				pos += 2;
+			}
+			int trailer = in.length - 8;
+			if (pos > trailer) {
+				throw new ZipException("Corrupt GZIP header");
+			}
+			int len = inflate(rawInflater, in, pos, trailer - pos, maxSize);
+			crc.reset();
+			crc.update(out, 0, len);
+			if ((int) crc.getValue() != readInt(in, trailer) || len != readInt(in, trailer + 4)) {
+				throw new ZipException("Corrupt GZIP trailer");
+			}
+			return len;
+		}
+
+		private int inflate(Inflater inflater, byte[] in, int offset, int length, int maxSize)
+				throws DataFormatException, ZipException {
+			inflater.reset();
+			inflater.setInput(in, offset, length);
+			// one byte past the limit tells a body of exactly maxSize from a longer one
+			long limit = maxSize + 1L;
+			int len = 0;
+			while (!inflater.finished()) {
+				ensure(len + 1);
+				int n = inflater.inflate(out, len, (int) Math.min(limit - len, out.length - len));
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new DataFormatException("Compressed body is truncated");
+				}
+				len += n;
+				if (len > maxSize) {
+					throw new ZipException("Compressed body decompresses to more than " + maxSize + " bytes");
+				}
+			}
+			return len;
+		}
+
+		private void ensure(int size) {
+			if (size > out.length) {
+				out = Arrays.copyOf(out, Math.max(size, out.length * 2));
+			}
+		}
+
+		private int writeInt(int pos, int v) {
+			out[pos] = (byte) v;
+			out[pos + 1] = (byte) (v >> 8);
+			out[pos + 2] = (byte) (v >> 16);
+			out[pos + 3] = (byte) (v >> 24);
+			return pos + 4;
+		}
+
+		private static int readInt(byte[] in, int pos) {
+			return (in[pos] & 0xff) | (in[pos + 1] & 0xff) << 8 | (in[pos + 2] & 0xff) << 16
+					| (in[pos + 3] & 0xff) << 24;
+		}
+
+		private static int skipString(byte[] in, int pos) throws ZipException {
+			while (pos < in.length && in[pos] != 0) {
+				pos++;
+			}
+			if (pos == in.length) {
+				throw new ZipException("Corrupt GZIP header");
+			}
+			return pos + 1;
+		}
+	}
+}
@@ -0,0 +1,304 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One pool of threads shared by all the listeners of the provider, so the
+ * thread count follows the configured pool size rather than the number of
+ * listener methods.
+ * <p>
+ * Every listener submits to its own Lane. A free thread first serves the lanes
+ * running fewer tasks than their min, then the lane that has had the least of
+ * the pool for its weight (start time fair queuing), skipping lanes already
+ * running their max. The min is a priority, no threads are held back for it: a
+ * lane below its min still waits for a thread to come free, it only goes ahead
+ * of the others when one does. A lane that was idle joins at the current
+ * virtual time so it can not claim the pool for the time it was away.
+ * <p>
+ * The threads are daemon threads, they never keep the JVM alive on their own.
+ *
+ * @author John Bryant
+ *
+ */
+@Slf4j
+class SqsExecutionEngine {
+
+	private final ScheduledExecutorService scheduler;
+
+	private final List<Lane> lanes = new ArrayList<>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition ready = lock.newCondition();
+
+	private final Thread[] threads;
+
+	private final int size;
+
+	private double clock = 0;
+
+	private int minTotal = 0;
+
+	private volatile boolean running = true;
+
+	/**
+	 * @param size      the number of threads
+	 * @param scheduler the scheduler the listeners share for their timed work
+	 */
+	SqsExecutionEngine(int size, ScheduledExecutorService scheduler) {
+		this.size = size;
+		this.scheduler = scheduler;
+		threads = new Thread[size];
+		for (int i = 0; i < size; i++) {
+			threads[i] = new Thread(this::work, "qcat-sqs-" + (i + 1));
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+
+	ScheduledExecutorService getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * @param name   for the logs
+	 * @param min    tasks the lane is served first up to
+	 * @param max    tasks the lane may run at once
+	 * @param weight share of the pool relative to the other lanes
+	 * @return a new lane
+	 */
+	Lane newLane(String name, int min, int max, int weight) {
+		lock.lock();
+		try {
+			Lane lane = new Lane(name, min, max, Math.max(1, weight));
+			lanes.add(lane);
+			minTotal += lane.min;
+			if (minTotal > size) {
+				log.warn("The min of the listeners adds up to {}, more than the {} shared threads can run at once",
+						minTotal, size);
+			}
+			return lane;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop the threads, tasks still queued are dropped
+	 */
+	void shutdown() {
+		running = false;
+		for (Thread t : threads) {
+			t.interrupt();
+		}
+	}
+
+	private void work() {
+		while (running) {
+			Lane lane;
+			Runnable task;
+			lock.lock();
+			try {
+				while ((lane = next()) == null) {
+					ready.await();
+				}
+				task = lane.tasks.poll();
+				lane.active++;
+				lane.start = Math.max(lane.start, clock);
+				clock = lane.start;
+				lane.start += 1.0 / lane.weight;
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				lock.unlock();
+			}
+			try {
+				task.run();
+			} catch (Throwable t) {
+				// an Error must not cost the pool its thread
+				log.error("Task on {} failed", lane.name, t);
+			} finally {
+				lock.lock();
+				try {
+					lane.active--;
+					// a lane held back by its max may go again
+					ready.signal();
+					if (lane.active == 0 && lane.tasks.isEmpty()) {
+						lane.idle.signalAll();
+						if (lane.shutdown) {
+							lanes.remove(lane);
+						}
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the lane to serve next, called holding the lock
+	 */
+	private Lane next() {
+		Lane best = null;
+		boolean bestBelowMin = false;
+		for (Lane lane : lanes) {
+			if (lane.tasks.isEmpty() || lane.active >= lane.max) {
+				continue;
+			}
+			boolean belowMin = lane.active < lane.min;
+			if (best == null || (belowMin && !bestBelowMin)
+					|| (belowMin == bestBelowMin && Math.max(lane.start, clock) < Math.max(best.start, clock))) {
+				best = lane;
+				bestBelowMin = belowMin;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * The executor of one listener on the shared pool
+	 */
+	class Lane extends AbstractExecutorService {
+
+		private final String name;
+
+		private final int min;
+
+		private final int max;
+
+		private final int weight;
+
+		private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+		private final Condition idle = lock.newCondition();
+
+		private int active = 0;
+
+		private double start = 0;
+
+		private boolean shutdown = false;
+
+		private Lane(String name, int min, int max, int weight) {
+			this.name = name;
+			this.min = Math.min(min, max);
+			this.max = max;
+			this.weight = weight;
+		}
+
+		/**
+		 * @return the number of tasks waiting for a thread
+		 */
+		int getQueueLength() {
+			lock.lock();
+			try {
+				return tasks.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			lock.lock();
+			try {
+				if (shutdown || !running) {
+					throw new RejectedExecutionException("Listener is shut down: " + name);
+				}
+				tasks.add(command);
+				ready.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void shutdown() {
+			lock.lock();
+			try {
+				if (!shutdown) {
+					shutdown = true;
+					minTotal -= min;
+				}
+				// queued tasks still run, the lane goes once they are done
+				if (active == 0 && tasks.isEmpty()) {
+					lanes.remove(this);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			lock.lock();
+			try {
+				List<Runnable> dropped = new ArrayList<>(tasks);
+				tasks.clear();
+				shutdown();
+				return dropped;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return shutdown;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			lock.lock();
+			try {
+				return shutdown && active == 0 && tasks.isEmpty();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			long nanos = unit.toNanos(timeout);
+			lock.lock();
+			try {
+				while (!isTerminated()) {
+					if (nanos <= 0) {
+						return false;
+					}
+					nanos = idle.awaitNanos(nanos);
+				}
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
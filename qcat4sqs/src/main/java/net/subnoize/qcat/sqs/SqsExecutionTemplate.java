@@ -16,31 +16,50 @@
 
 package net.subnoize.qcat.sqs;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
 
 import javax.annotation.PostConstruct;
 
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import net.subnoize.qcat.Session;
+import net.subnoize.qcat.blob.BlobStore;
+import net.subnoize.qcat.codec.PayloadCodec;
+import net.subnoize.qcat.codec.PayloadCodecs;
+import net.subnoize.qcat.listen.Invoker;
 import net.subnoize.qcat.listen.ListenTo;
-import net.subnoize.qcat.model.Attribute;
-import net.subnoize.qcat.model.Payload;
+import net.subnoize.qcat.listen.ListenerBinding;
+import net.subnoize.qcat.send.Compression;
 import net.subnoize.qcat.send.SendTo;
 import net.subnoize.qcat.util.ConfigurationUtils;
 import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
 
 @Slf4j
 @NoArgsConstructor
@@ -48,24 +67,92 @@ import software.amazon.awssdk.services.sqs.model.Message;
 @Setter
 public class SqsExecutionTemplate {
 
+	static final int MAX_WAIT_TIME_SECONDS = 20;
+
+	static final int DEFAULT_VISIBILITY_TIMEOUT = 30;
+
+	private static final ListenerBinding.MessageAccess<Message> ACCESS = new ListenerBinding.MessageAccess<Message>() {
+
+		@Override
+		public String body(Message message) {
+			return message.body();
+		}
+
+		@Override
+		public Object attribute(Message message, String name) {
+			return SqsMessageAttributes.valueOf(message.messageAttributes().get(name));
+		}
+
+		@Override
+		public String messageId(Message message) {
+			return message.messageId();
+		}
+	};
+
 	@Autowired
 	private ConfigurationUtils helper;
 
 	@Autowired
 	private SqsAsyncClient asyncClient;
 
+	@Autowired
+	private ObjectMapper mapper;
+
+	@Autowired
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private ObjectProvider<BlobStore> blobStores;
+
+	@Autowired
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private ObjectProvider<PayloadCodec> codecBeans;
+
 	private String queueUrl;
+	private List<String> queueUrls = new ArrayList<>();
+	private int[] weights;
 	private Method method;
 	private Object target;
-	private Parameter[] parameters;
-	private Parameter payload;
-	private List<Parameter> attributes = new ArrayList<>();
 	private Collection<String> attributeNames = new ArrayList<>();
 	private ListenTo to;
 	private int threadCeiling = 0;
 	private boolean sendToPresent = false;
 	private String sendTo;
-	private boolean sendToAsString;
+	private Compression compression = Compression.NONE;
+	private PayloadCodec codec;
+	private PayloadCodec resultCodec;
+	private BlobStore blobStore;
+	private int waitTimeSeconds;
+	private Integer visibilityTimeout;
+	private int messageVisibility = 0;
+
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private Invoker invoker;
+
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private long redeemTimeout = TimeUnit.SECONDS.toMillis(DEFAULT_VISIBILITY_TIMEOUT);
+
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private ListenerBinding<Message> binding;
+
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private PayloadCodecs codecs;
+
+	@Getter(AccessLevel.PACKAGE)
+	@Setter(AccessLevel.PACKAGE)
+	private SqsQueueUrlResolver urlResolver;
+
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.PACKAGE)
+	private int maxDecompressedSize = SqsCompression.MAX_DECOMPRESSED_SIZE;
+
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.PACKAGE)
+	private SqsWorkerMetrics metrics = SqsWorkerMetrics.NOOP;
 
 	/**
 	 * @throws ExecutionException
@@ -76,71 +163,180 @@ public class SqsExecutionTemplate {
 	private void init() throws InterruptedException, ExecutionException {
 
 		to = method.getAnnotation(ListenTo.class);
-		queueUrl = to.value();
+		List<String> queues = queueNames();
+		if (queues.isEmpty()) {
+			throw new IllegalArgumentException(
+					"No queue to listen to on " + target.getClass().getName() + "." + method.getName());
+		}
+		// all the queues are looked up at once, listeners on the same queues share
+		// the lookups
+		List<CompletableFuture<String>> lookups = new ArrayList<>(queues.size());
+		for (String queue : queues) {
+			if (queue.contains("${")) {
+				queue = helper.getString(queue);
+			}
+			lookups.add(urlResolver.resolve(queue));
+		}
+		for (CompletableFuture<String> lookup : lookups) {
+			queueUrls.add(lookup.get());
+		}
+		// the first queue stands for the listener in logs and metrics
+		queueUrl = queueUrls.get(0);
 
-		if (queueUrl.contains("${")) {
-			queueUrl = helper.getString(queueUrl);
+		weights = to.queueWeights().length == 0 ? null : to.queueWeights();
+		if (weights != null && (weights.length != queueUrls.size() || Arrays.stream(weights).anyMatch(w -> w < 1))) {
+			log.warn("queueWeights {} do not give every queue a positive weight, using priority order",
+					Arrays.toString(weights));
+			weights = null;
 		}
 
-		String temp = resolveQueueUrl(queueUrl);
-		if (StringUtils.isNotBlank(temp)) {
-			queueUrl = temp;
+		blobStore = blobStores.getIfAvailable();
+
+		waitTimeSeconds = Math.max(0, Math.min(MAX_WAIT_TIME_SECONDS, to.waitTimeSeconds()));
+		if (waitTimeSeconds != to.waitTimeSeconds()) {
+			log.warn("waitTimeSeconds {} out of range, using {}", to.waitTimeSeconds(), waitTimeSeconds);
+		}
+		visibilityTimeout = to.visibilityTimeout() < 0 ? null : to.visibilityTimeout();
+		if (to.timeout() > 0 || to.prefetch() > 0 || to.batch() > Qcat4SqsWorker.MAX_MESSAGES) {
+			// what the heartbeat and the prefetch buffer measure the time of a message against
+			messageVisibility = visibilityTimeout != null ? visibilityTimeout : queueVisibilityTimeout();
+		}
+		// a body not had by then would only be read for a message that is visible again
+		if (to.timeout() > 0) {
+			redeemTimeout = to.timeout();
+		} else if (visibilityTimeout != null || messageVisibility > 0) {
+			redeemTimeout = TimeUnit.SECONDS.toMillis(visibilityTimeout != null ? visibilityTimeout : messageVisibility);
 		}
 
-		log.info("Starting: {}.{}('{}',{},{},{},{})", target.getClass().getName(), method.getName(), queueUrl,
-				to.min(), to.max(), to.timeout(), to.polling());
+		log.info("Starting: {}.{}('{}',{},{},{},{},{},{},{})", target.getClass().getName(), method.getName(),
+				String.join("','", queueUrls),
+				to.min(), to.max(), to.timeout(), to.polling(), waitTimeSeconds, to.visibilityTimeout(),
+				to.prefetch());
 
 		if (method.isAnnotationPresent(SendTo.class)) {
 			sendToPresent = true;
 			sendTo = method.getAnnotation(SendTo.class).value();
+			compression = method.getAnnotation(SendTo.class).compression();
 
 			if (StringUtils.isNotBlank(sendTo)) {
 				if (sendTo.contains("${")) {
 					sendTo = helper.getString(sendTo);
 				}
 
-				String sendToStr = resolveQueueUrl(sendTo);
-				if (StringUtils.isNotBlank(sendToStr)) {
-					sendTo = sendToStr;
-				}
-			}
-			Class<?> ret = method.getReturnType();
-			if (String.class.equals(ret) || Integer.class.equals(ret) || Long.class.equals(ret)
-					|| Float.class.equals(ret) || Double.class.equals(ret)) {
-				sendToAsString = true;
-			} else {
-				sendToAsString = false;
+				// sends resolve it from the cache, this only gets the lookup going
+				String name = sendTo;
+				urlResolver.resolve(sendTo).whenComplete((u, t) -> {
+					if (t != null) {
+						log.warn("Unable to resolve SendTo {}: {}", name, t.toString());
+					}
+				});
 			}
+		}
+
+		bindInvoker();
+
+		compileBindings();
+	}
 
+	/**
+	 * Work out once how every parameter of the method is filled, so binding a
+	 * message is a loop over ready made resolvers.
+	 */
+	void compileBindings() {
+		if (to == null) {
+			to = method.getAnnotation(ListenTo.class);
+		}
+		if (codecs == null) {
+			codecs = new PayloadCodecs(mapper, codecBeans != null ? codecBeans.orderedStream() : Stream.empty());
 		}
+		binding = new ListenerBinding<>(method, Message.class, ACCESS, mapper, codecs,
+				() -> metrics.deserializationFailed());
+		codec = binding.getCodec();
+		resultCodec = binding.getResultCodec();
 
-		parameters = method.getParameters();
-		if (parameters.length == 1) {
-			payload = parameters[0];
-		} else {
-			for (Parameter p : parameters) {
-				if (p.isAnnotationPresent(Payload.class) && payload == null) {
-					payload = p;
-				} else if (p.isAnnotationPresent(Attribute.class)) {
-					if (attributes == null) {
-						attributes = new ArrayList<>();
-					}
-					attributes.add(p);
-					attributeNames.add(p.getAnnotation(Attribute.class).value());
-				}
-			}
+		binding.getAttributeNames().forEach(this::addAttributeName);
+		addAttributeName(SqsCompression.ATTRIBUTE);
+		addAttributeName(SqsClaimCheck.ATTRIBUTE);
+	}
+
+	private void addAttributeName(String name) {
+		if (!attributeNames.contains(name)) {
+			attributeNames.add(name);
 		}
+	}
 
-		if (StringUtils.isNotBlank(to.transactionId()) && !attributeNames.contains(to.transactionId())) {
-			attributeNames.add(to.transactionId());
+	/**
+	 * Encode a listener result as a message body with the codec of the SendTo
+	 * 
+	 * @param ret
+	 * @return the message body
+	 * @throws IOException
+	 */
+	public String encode(Object ret) throws IOException {
+		return binding.encode(ret);
+	}
+
+	/**
+	 * Bind a message to the arguments of the listener method. A transaction ID
+	 * found on the message is put in the MDC and the Session attributes.
+	 * 
+	 * @param session
+	 * @return the arguments
+	 */
+	public Object[] bind(Session<Message> session) {
+		return binding.bind(session);
+	}
+
+	/**
+	 * Bind a batch of messages to the arguments of a batch listener, every
+	 * argument a List with an element per message. Messages whose payload can not
+	 * be read are flagged on their Session and left out of all the Lists. The
+	 * transaction IDs of the bound messages go in the MDC joined by commas.
+	 * 
+	 * @param sessions
+	 * @return the arguments
+	 */
+	public Object[] bindBatch(List<Session<Message>> sessions) {
+		return binding.bindBatch(sessions);
+	}
+
+	/**
+	 * @return true if the listener takes a batch of messages per call
+	 */
+	public boolean isBatch() {
+		return to.batch() > 0;
+	}
+
+	/**
+	 * @return the queue of ListenTo(value), if any, followed by ListenTo(queues)
+	 */
+	private List<String> queueNames() {
+		List<String> queues = new ArrayList<>(to.queues().length + 1);
+		if (StringUtils.isNotBlank(to.value())) {
+			queues.add(to.value());
 		}
+		queues.addAll(Arrays.asList(to.queues()));
+		return queues;
 	}
 
-	private String resolveQueueUrl(String queueName) throws InterruptedException, ExecutionException {
-		if (queueName.toLowerCase().contains("https://")) {
-			return queueName;
-		} else {
-			return asyncClient.getQueueUrl(b -> b.queueName(queueName)).get().queueUrl();
+	/**
+	 * The visibility timeout configured on the queue, which is what messages are
+	 * received with when the listener does not ask for one. With several queues
+	 * the first one's is taken for all of them.
+	 * 
+	 * @return the timeout in seconds
+	 * @throws InterruptedException
+	 */
+	private int queueVisibilityTimeout() throws InterruptedException {
+		try {
+			String v = asyncClient.getQueueAttributes(
+					b -> b.queueUrl(queueUrl).attributeNames(QueueAttributeName.VISIBILITY_TIMEOUT)).get()
+					.attributes().get(QueueAttributeName.VISIBILITY_TIMEOUT);
+			return Integer.parseInt(v);
+		} catch (ExecutionException | NumberFormatException e) {
+			log.warn("Unable to read the visibility timeout of {}, assuming {}s: {}", queueUrl,
+					DEFAULT_VISIBILITY_TIMEOUT, e.getMessage());
+			return DEFAULT_VISIBILITY_TIMEOUT;
 		}
 	}
 
@@ -150,18 +346,102 @@ public class SqsExecutionTemplate {
 	 * @return
 	 */
 	public Session<Message> newSession(Message m) {
-		Session<Message> session = new Session<>();
-		session.setAcknowledge(to.acknowledge());
-		session.setError(false);
-		session.setErrorCode(-1);
-		session.setErrorDescription(null);
-		session.setDestination(sendTo);
-		session.setRequest(m);
+		Session<Message> session = binding.newSession(m, sendTo);
+		Message redeemed = redeem(session, m);
+		session.setRequest(session.isError() ? redeemed : decompress(session, redeemed));
 		return session;
 	}
 
+	/**
+	 * The message with the body it was sent with if only its claim check came
+	 * through the queue. The store is read on the handler thread, which is about
+	 * to spend its time on this message anyway, for no longer than the
+	 * &#64;ListenTo(timeout) or else the visibility timeout of the message. If the
+	 * body can not be had in time the message is not acknowledged, the store may
+	 * be back by the time it is visible again.
+	 * 
+	 * @param session
+	 * @param m
+	 * @return the message to bind
+	 */
+	private Message redeem(Session<Message> session, Message m) {
+		if (SqsClaimCheck.keyOf(m) == null) {
+			return m;
+		}
+		try {
+			if (blobStore == null) {
+				throw new IllegalStateException("No BlobStore bean to redeem the claim check with");
+			}
+			return SqsClaimCheck.redeem(blobStore, m).orTimeout(redeemTimeout, TimeUnit.MILLISECONDS).join();
+		} catch (RuntimeException e) {
+			Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			session.setAcknowledge(false);
+			session.setError(true);
+			session.setErrorCode(500);
+			session.setErrorDescription(cause instanceof TimeoutException
+					? "Claim check not redeemed within " + redeemTimeout + "ms"
+					: cause.getMessage());
+			log.error("Error redeeming claim check of message: {} Exception: {}", m.messageId(), cause.toString());
+			return m;
+		}
+	}
+
+	/**
+	 * The message with its body decompressed if it was sent compressed, so the
+	 * listener never sees the difference. A body that would decompress past
+	 * qcat.sqs.max-decompressed-size is an error like a corrupt one.
+	 * 
+	 * @param session
+	 * @param m
+	 * @return the message to bind
+	 */
+	private Message decompress(Session<Message> session, Message m) {
+		MessageAttributeValue encoding = m.messageAttributes().get(SqsCompression.ATTRIBUTE);
+		if (encoding == null) {
+			return m;
+		}
+		try {
+			Map<String, MessageAttributeValue> attrs = new HashMap<>(m.messageAttributes());
+			attrs.remove(SqsCompression.ATTRIBUTE);
+			return m.toBuilder().body(SqsCompression.decompress(m.body(), encoding.stringValue(), maxDecompressedSize))
+					.messageAttributes(attrs).build();
+		} catch (ZipException e) {
+			session.setError(true);
+			session.setErrorCode(500);
+			session.setErrorDescription(e.getMessage());
+			metrics.deserializationFailed();
+			log.error("Error decompressing message: {} Exception: {}", m.messageId(), e.getMessage());
+			return m;
+		}
+	}
+
+	/**
+	 * Binds the target method once to a generated invoker, or failing that to a
+	 * MethodHandle, so invoking it skips the access checks and argument copying of
+	 * Method.invoke.
+	 */
+	void bindInvoker() {
+		invoker = Invoker.create(method, target);
+	}
+
+	/**
+	 * Call the listener method. Anything the method throws arrives wrapped in an
+	 * InvocationTargetException, just as with Method.invoke.
+	 * 
+	 * @param args
+	 * @return the return value of the method, null for void methods
+	 * @throws IllegalAccessException
+	 * @throws InvocationTargetException
+	 */
 	public Object invoke(Object[] args) throws IllegalAccessException, InvocationTargetException {
-		return method.invoke(target, args);
+		if (invoker == null) {
+			bindInvoker();
+		}
+		try {
+			return invoker.invoke(args);
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
 	}
 
 }
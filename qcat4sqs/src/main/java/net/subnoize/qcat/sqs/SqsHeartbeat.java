@@ -0,0 +1,136 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the messages of one worker invisible while their handlers run. Every
+ * tracked message whose visibility timeout is more than half used up gets it
+ * extended by another full timeout through the SqsVisibilityChanger, until the
+ * handler finishes or &#64;ListenTo(timeout) has passed since it was received.
+ * After that the message is left to become visible again.
+ *
+ * @author John Bryant
+ *
+ */
+@Slf4j
+class SqsHeartbeat implements Runnable {
+
+	private final long visibilityMillis;
+
+	private final long maxMillis;
+
+	private final SqsVisibilityChanger changer;
+
+	private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+	/**
+	 * @param visibilitySeconds the visibility timeout messages are received with
+	 * @param maxMillis         the longest a message is kept invisible
+	 * @param changer
+	 */
+	SqsHeartbeat(int visibilitySeconds, long maxMillis, SqsVisibilityChanger changer) {
+		this.visibilityMillis = TimeUnit.SECONDS.toMillis(visibilitySeconds);
+		this.maxMillis = maxMillis;
+		this.changer = changer;
+	}
+
+	/**
+	 * @return how often in milliseconds the leases should be checked
+	 */
+	long getPeriod() {
+		return Math.max(100, visibilityMillis / 4);
+	}
+
+	/**
+	 * Start keeping a received message invisible
+	 *
+	 * @param queueUrl      the queue the message came from
+	 * @param receiptHandle
+	 */
+	void track(String queueUrl, String receiptHandle) {
+		long now = System.currentTimeMillis();
+		leases.put(receiptHandle, new Lease(queueUrl, now, now + visibilityMillis));
+	}
+
+	/**
+	 * Stop extending a message, its handler is done with it
+	 *
+	 * @param receiptHandle
+	 */
+	void release(String receiptHandle) {
+		leases.remove(receiptHandle);
+	}
+
+	/**
+	 * @return the messages being kept invisible
+	 */
+	int size() {
+		return leases.size();
+	}
+
+	@Override
+	public void run() {
+		long now = System.currentTimeMillis();
+		leases.forEach((receipt, lease) -> {
+			if (lease.pending || lease.deadline - now > visibilityMillis / 2) {
+				return;
+			}
+			long left = lease.start + maxMillis - now;
+			if (left <= 0) {
+				log.warn("Message on {} still handled after {}ms, no longer extending its visibility",
+						lease.queueUrl, maxMillis);
+				leases.remove(receipt, lease);
+				return;
+			}
+			int seconds = (int) Math.min(TimeUnit.MILLISECONDS.toSeconds(visibilityMillis),
+					TimeUnit.MILLISECONDS.toSeconds(left + 999));
+			lease.pending = true;
+			changer.change(lease.queueUrl, receipt, seconds).whenComplete((v, t) -> {
+				if (t != null) {
+					log.warn("Unable to extend visibility of message on {}: {}", lease.queueUrl, t.getMessage());
+					leases.remove(receipt, lease);
+				} else {
+					lease.deadline = now + TimeUnit.SECONDS.toMillis(seconds);
+					lease.pending = false;
+				}
+			});
+		});
+	}
+
+	private static final class Lease {
+
+		private final String queueUrl;
+
+		private final long start;
+
+		private volatile long deadline;
+
+		private volatile boolean pending = false;
+
+		private Lease(String queueUrl, long start, long deadline) {
+			this.queueUrl = queueUrl;
+			this.start = start;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -19,6 +19,8 @@ package net.subnoize.qcat.sqs;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.commons.lang3.math.NumberUtils;
+
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
 
@@ -37,6 +39,32 @@ public class SqsMessageAttributes {
 	public static final Builder builder() {
 		return new Builder();
 	}
+
+	/**
+	 * The value of an attribute the way the Builder takes it: a String, a Long or
+	 * Double for Number types that parse as one, a byte[] for Binary types
+	 * 
+	 * @param v
+	 * @return the value or null
+	 */
+	public static Object valueOf(MessageAttributeValue v) {
+		if (v == null) {
+			return null;
+		}
+		String type = v.dataType() != null ? v.dataType() : "String";
+		if (type.startsWith("Binary")) {
+			return v.binaryValue() != null ? v.binaryValue().asByteArray() : null;
+		}
+		String s = v.stringValue();
+		if (type.startsWith("Number") && NumberUtils.isParsable(s)) {
+			try {
+				return s.contains(".") ? (Object) Double.parseDouble(s) : (Object) Long.parseLong(s);
+			} catch (NumberFormatException e) {
+				// out of range of a long, left as it came
+			}
+		}
+		return s;
+	}
 	
 	
 	public static final class Builder {
@@ -72,7 +100,7 @@ public class SqsMessageAttributes {
 			} else if(value instanceof Number) {
 				this.attr(key,(Number)value);
 			} else if(value instanceof byte[]) {
-				this.attr(key,(byte)value);
+				this.attr(key,(byte[])value);
 			}
 			return this;
 		}
@@ -0,0 +1,94 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.sqs;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.lang3.StringUtils;
+
+import net.subnoize.qcat.blob.BlobStore;
+import net.subnoize.qcat.codec.PayloadCodec;
+import net.subnoize.qcat.codec.PayloadCodecs;
+import net.subnoize.qcat.send.Compression;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+/**
+ * The way every body of the provider goes out, &#64;SendTo results and Sender
+ * sends alike: marked with its codec, compressed when asked to and long enough
+ * to be worth it, and by claim check if it is still too large for SQS, before
+ * it is handed to the batching sender.
+ *
+ * @author John Bryant
+ *
+ */
+class SqsPublisher {
+
+	private final SqsSender sender;
+
+	private final BlobStore blobStore;
+
+	private final int compressionThreshold;
+
+	private final int claimCheckThreshold;
+
+	/**
+	 * @param sender
+	 * @param blobStore            null to never send by claim check
+	 * @param compressionThreshold the shortest body in characters compressed
+	 * @param claimCheckThreshold  the largest message in bytes sent as it is
+	 */
+	SqsPublisher(SqsSender sender, BlobStore blobStore, int compressionThreshold, int claimCheckThreshold) {
+		this.sender = sender;
+		this.blobStore = blobStore;
+		this.compressionThreshold = compressionThreshold;
+		this.claimCheckThreshold = claimCheckThreshold;
+	}
+
+	/**
+	 * @param queueUrl
+	 * @param body
+	 * @param attributes  may be null, left as it is
+	 * @param contentType of the codec that wrote the body, blank for JSON
+	 * @param compression
+	 * @return the future of the send
+	 */
+	CompletableFuture<SendMessageBatchResultEntry> publish(String queueUrl, String body,
+			Map<String, MessageAttributeValue> attributes, String contentType, Compression compression) {
+		if (StringUtils.isNotBlank(contentType) && !PayloadCodec.JSON.equals(contentType)) {
+			attributes = attributes == null ? new HashMap<>() : new HashMap<>(attributes);
+			attributes.put(PayloadCodecs.ATTRIBUTE,
+					MessageAttributeValue.builder().dataType("String").stringValue(contentType).build());
+		}
+		if (compression != Compression.NONE && body.length() >= compressionThreshold) {
+			String compressed = SqsCompression.compress(body, compression);
+			if (compressed != null) {
+				body = compressed;
+				attributes = attributes == null ? new HashMap<>() : new HashMap<>(attributes);
+				attributes.put(SqsCompression.ATTRIBUTE, SqsCompression.attribute(compression));
+			}
+		}
+		if (blobStore != null && SqsSender.sizeOf(body, attributes) > claimCheckThreshold) {
+			return SqsClaimCheck.offload(blobStore, body, attributes,
+					(key, attrs) -> sender.send(queueUrl, key, attrs));
+		}
+		return sender.send(queueUrl, body, attributes);
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+
+/**
+ * Resolves queue names to queue URLs for the whole provider. Lookups never
+ * block: concurrent resolves of one name share a single GetQueueUrl call and
+ * its answer is kept for the TTL, so sending by name costs no round trip per
+ * message. A queue that does not exist is remembered for the shorter negative
+ * TTL, any other failure is not kept at all and the next resolve asks again.
+ *
+ * @author John Bryant
+ *
+ */
+@Slf4j
+class SqsQueueUrlResolver {
+
+	// beyond this many names expired entries are swept on every lookup
+	private static final int SWEEP_SIZE = 1024;
+
+	private final SqsAsyncClient asyncClient;
+
+	private final long ttl;
+
+	private final long negativeTtl;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * @param asyncClient
+	 * @param ttl         how long in milliseconds a URL is kept
+	 * @param negativeTtl how long in milliseconds a missing queue is kept
+	 */
+	SqsQueueUrlResolver(SqsAsyncClient asyncClient, long ttl, long negativeTtl) {
+		this.asyncClient = asyncClient;
+		this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+		this.negativeTtl = TimeUnit.MILLISECONDS.toNanos(negativeTtl);
+	}
+
+	/**
+	 * @param destination a queue name or URL
+	 * @return the future of the queue URL, already complete for URLs and cached
+	 *         names
+	 */
+	CompletableFuture<String> resolve(String destination) {
+		if (destination == null || destination.isEmpty()) {
+			return CompletableFuture.failedFuture(new IllegalArgumentException("No queue to resolve"));
+		}
+		if (isUrl(destination)) {
+			return CompletableFuture.completedFuture(destination);
+		}
+		long now = System.nanoTime();
+		Entry entry = entries.get(destination);
+		if (entry != null && !entry.isExpired(now)) {
+			return entry.url;
+		}
+		Entry fresh = new Entry();
+		entry = entries.compute(destination, (name, old) -> old == null || old.isExpired(now) ? fresh : old);
+		if (entry == fresh) {
+			lookup(destination, fresh);
+			if (entries.size() > SWEEP_SIZE) {
+				entries.values().removeIf(e -> e.isExpired(now));
+			}
+		}
+		return entry.url;
+	}
+
+	/**
+	 * @param destination
+	 * @return true if the destination is a URL rather than a queue name
+	 */
+	static boolean isUrl(String destination) {
+		return destination.toLowerCase().contains("https://");
+	}
+
+	private void lookup(String name, Entry entry) {
+		CompletableFuture<String> url;
+		try {
+			url = asyncClient.getQueueUrl(b -> b.queueName(name)).thenApply(r -> r.queueUrl());
+		} catch (RuntimeException e) {
+			url = CompletableFuture.failedFuture(e);
+		}
+		url.whenComplete((u, t) -> {
+			Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+			if (cause == null) {
+				entry.expiresAt = System.nanoTime() + ttl;
+				entry.url.complete(u);
+			} else if (cause instanceof QueueDoesNotExistException) {
+				log.warn("Queue {} does not exist", name);
+				entry.expiresAt = System.nanoTime() + negativeTtl;
+				entry.url.completeExceptionally(cause);
+			} else {
+				entries.remove(name, entry);
+				entry.url.completeExceptionally(cause);
+			}
+		});
+	}
+
+	/**
+	 * The URL of one name, or its lookup in progress
+	 */
+	private static final class Entry {
+
+		private final CompletableFuture<String> url = new CompletableFuture<>();
+
+		// only meaningful once the lookup is done
+		private volatile long expiresAt;
+
+		private boolean isExpired(long now) {
+			return url.isDone() && now - expiresAt >= 0;
+		}
+	}
+}
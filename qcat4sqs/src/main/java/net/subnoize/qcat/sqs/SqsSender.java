@@ -0,0 +1,144 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+/**
+ * Coalesces outbound messages from all the workers into SendMessageBatch calls
+ * per destination queue, bounded by the 10 entry and 256 KB limits of SQS.
+ *
+ * @author John Bryant
+ *
+ */
+class SqsSender extends SqsBatcher<SendMessageBatchRequestEntry, SendMessageBatchResultEntry> {
+
+	static final int MAX_BATCH_BYTES = 262_144;
+
+	SqsSender(SqsAsyncClient asyncClient, ScheduledExecutorService scheduler, long linger, int maxRetries) {
+		super(asyncClient, scheduler, linger, maxRetries);
+	}
+
+	/**
+	 * Queue a message for the next batch to its queue
+	 *
+	 * @param queueUrl
+	 * @param body
+	 * @param attributes may be null
+	 * @return the future of this message alone
+	 */
+	public CompletableFuture<SendMessageBatchResultEntry> send(String queueUrl, String body,
+			Map<String, MessageAttributeValue> attributes) {
+		return add(queueUrl, SendMessageBatchRequestEntry.builder().messageBody(body).messageAttributes(attributes).build());
+	}
+
+	/**
+	 * Queue a fully built request, as returned by a listener, for the next batch
+	 * to its queue
+	 *
+	 * @param req
+	 * @return the future of this message alone
+	 */
+	public CompletableFuture<SendMessageBatchResultEntry> send(SendMessageRequest req) {
+		return add(req.queueUrl(),
+				SendMessageBatchRequestEntry.builder().messageBody(req.messageBody()).delaySeconds(req.delaySeconds())
+						.messageAttributes(req.hasMessageAttributes() ? req.messageAttributes() : null)
+						.messageSystemAttributesWithStrings(
+								req.hasMessageSystemAttributes() ? req.messageSystemAttributesAsStrings() : null)
+						.messageDeduplicationId(req.messageDeduplicationId()).messageGroupId(req.messageGroupId())
+						.build());
+	}
+
+	@Override
+	protected int sizeOf(SendMessageBatchRequestEntry entry) {
+		return sizeOf(entry.messageBody(), entry.hasMessageAttributes() ? entry.messageAttributes() : null);
+	}
+
+	/**
+	 * The size of a message as SQS counts it against its limit
+	 *
+	 * @param body
+	 * @param attributes may be null
+	 * @return the size in bytes
+	 */
+	static int sizeOf(String body, Map<String, MessageAttributeValue> attributes) {
+		int size = utf8Length(body);
+		if (attributes != null) {
+			for (Map.Entry<String, MessageAttributeValue> e : attributes.entrySet()) {
+				MessageAttributeValue v = e.getValue();
+				size += utf8Length(e.getKey()) + utf8Length(v.dataType()) + utf8Length(v.stringValue());
+				if (v.binaryValue() != null) {
+					size += v.binaryValue().asByteBuffer().remaining();
+				}
+			}
+		}
+		return size;
+	}
+
+	@Override
+	protected int maxBytes() {
+		return MAX_BATCH_BYTES;
+	}
+
+	@Override
+	protected CompletableFuture<Outcome<SendMessageBatchResultEntry>> execute(String queueUrl,
+			Map<String, SendMessageBatchRequestEntry> entries) {
+		return asyncClient.sendMessageBatch(b -> b.queueUrl(queueUrl).entries(entries.entrySet().stream()
+				.map(e -> e.getValue().toBuilder().id(e.getKey()).build()).collect(Collectors.toList())))
+				.thenApply(resp -> {
+					Outcome<SendMessageBatchResultEntry> outcome = new Outcome<>(resp.failed());
+					resp.successful().forEach(s -> outcome.success(s.id(), s));
+					return outcome;
+				});
+	}
+
+	/**
+	 * The UTF-8 encoded length of a string without encoding it
+	 *
+	 * @param str
+	 * @return the length in bytes
+	 */
+	static int utf8Length(String str) {
+		if (str == null) {
+			return 0;
+		}
+		int len = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				len++;
+			} else if (c < 0x800) {
+				len += 2;
+			} else if (Character.isHighSurrogate(c)) {
+				len += 4;
+				i++;
+			} else {
+				len += 3;
+			}
+		}
+		return len;
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+
+/**
+ * Collects visibility changes of received messages from all the workers and
+ * sends them with ChangeMessageVisibilityBatch instead of one
+ * ChangeMessageVisibility per message.
+ *
+ * @author John Bryant
+ *
+ */
+class SqsVisibilityChanger extends SqsBatcher<ChangeMessageVisibilityBatchRequestEntry, Void> {
+
+	SqsVisibilityChanger(SqsAsyncClient asyncClient, ScheduledExecutorService scheduler, long linger,
+			int maxRetries) {
+		super(asyncClient, scheduler, linger, maxRetries);
+	}
+
+	/**
+	 * Queue a visibility change for the next batch
+	 *
+	 * @param queueUrl
+	 * @param receiptHandle
+	 * @param seconds       the new visibility timeout counted from now
+	 * @return the future for this change alone
+	 */
+	public CompletableFuture<Void> change(String queueUrl, String receiptHandle, int seconds) {
+		return add(queueUrl, ChangeMessageVisibilityBatchRequestEntry.builder().receiptHandle(receiptHandle)
+				.visibilityTimeout(seconds).build());
+	}
+
+	@Override
+	protected CompletableFuture<Outcome<Void>> execute(String queueUrl,
+			Map<String, ChangeMessageVisibilityBatchRequestEntry> entries) {
+		return asyncClient.changeMessageVisibilityBatch(b -> b.queueUrl(queueUrl).entries(entries.entrySet().stream()
+				.map(e -> e.getValue().toBuilder().id(e.getKey()).build()).collect(Collectors.toList())))
+				.thenApply(resp -> {
+					Outcome<Void> outcome = new Outcome<>(resp.failed());
+					resp.successful().forEach(s -> outcome.success(s.id(), null));
+					return outcome;
+				});
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.util.ClassUtils;
+
+/**
+ * What a worker reports about its receive, handle, ack and send stages. Unless
+ * Micrometer and a MeterRegistry bean are present this is {@link #NOOP}.
+ *
+ * @author John Bryant
+ *
+ */
+interface SqsWorkerMetrics {
+
+	SqsWorkerMetrics NOOP = new SqsWorkerMetrics() {
+	};
+
+	/**
+	 * The metrics for a worker, Micrometer backed when it is on the classpath and
+	 * a MeterRegistry bean exists
+	 *
+	 * @param context
+	 * @param worker
+	 * @return the metrics
+	 */
+	static SqsWorkerMetrics of(ApplicationContext context, Qcat4SqsWorker worker) {
+		if (!ClassUtils.isPresent("io.micrometer.core.instrument.MeterRegistry",
+				SqsWorkerMetrics.class.getClassLoader())) {
+			return NOOP;
+		}
+		return MicrometerWorkerMetrics.create(context, worker);
+	}
+
+	/**
+	 * A receive came back
+	 *
+	 * @param nanos    the time the receive was open
+	 * @param messages the number of messages, -1 if the receive failed
+	 */
+	default void received(long nanos, int messages) {
+	}
+
+	/**
+	 * A handler returned or threw
+	 *
+	 * @param nanos
+	 * @param failed
+	 */
+	default void handled(long nanos, boolean failed) {
+	}
+
+	/**
+	 * A payload could not be deserialized
+	 */
+	default void deserializationFailed() {
+	}
+
+	/**
+	 * An acknowledgement was answered
+	 *
+	 * @param nanos  the time from acknowledging to the answer of its batch
+	 * @param failed
+	 */
+	default void acknowledged(long nanos, boolean failed) {
+	}
+
+	/**
+	 * A result was sent
+	 *
+	 * @param nanos  the time from handing it over to the answer of its batch
+	 * @param failed
+	 */
+	default void sent(long nanos, boolean failed) {
+	}
+
+	/**
+	 * The worker shut down, whatever was registered for it is removed
+	 */
+	default void close() {
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.subnoize.qcat.sqs;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every task on its own virtual thread with a semaphore holding the number
+ * of concurrently running tasks to a limit. Waiting for a permit only parks a
+ * virtual thread, so queueing costs next to nothing.
+ * <p>
+ * The build targets Java 11 so the virtual thread factory is looked up at
+ * runtime, check {@link #isSupported()} before creating one.
+ *
+ * @author John Bryant
+ *
+ */
+class VirtualThreadExecutor extends AbstractExecutorService {
+
+	private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = lookup();
+
+	private final ExecutorService delegate;
+
+	private final Semaphore permits;
+
+	VirtualThreadExecutor(int maxConcurrency) {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Virtual threads need a Java 21 or later runtime");
+		}
+		try {
+			delegate = (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Unable to create virtual thread executor", e);
+		}
+		permits = new Semaphore(maxConcurrency);
+	}
+
+	/**
+	 * @return true if the runtime can create virtual threads
+	 */
+	static boolean isSupported() {
+		return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	private static Method lookup() {
+		// 19 and 20 only have them as a preview feature
+		if (Runtime.version().feature() < 21) {
+			return null;
+		}
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the number of tasks waiting for a permit
+	 */
+	int getQueueLength() {
+		return permits.getQueueLength();
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		delegate.execute(() -> {
+			permits.acquireUninterruptibly();
+			try {
+				command.run();
+			} finally {
+				permits.release();
+			}
+		});
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+}
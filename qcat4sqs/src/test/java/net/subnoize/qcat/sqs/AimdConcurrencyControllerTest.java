@@ -0,0 +1,111 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.sqs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author John Bryant
+ *
+ */
+class AimdConcurrencyControllerTest {
+
+	@Test
+	void startsAtMinWithinSaneBounds() {
+		AimdConcurrencyController controller = new AimdConcurrencyController(0, -5);
+
+		assertEquals(1, controller.getMin());
+		assertEquals(1, controller.getMax());
+		assertEquals(1, controller.getLimit());
+		assertEquals(3, new AimdConcurrencyController(3, 10).getLimit());
+	}
+
+	@Test
+	void backlogGrowsByOneUpToMax() {
+		AimdConcurrencyController controller = new AimdConcurrencyController(1, 4);
+		controller.onReceive(10, 10);
+		assertEquals(2, controller.getLimit());
+		assertEquals("backlog", controller.getLastDecision());
+
+		for (int i = 0; i < 10; i++) {
+			controller.onReceive(10, 10);
+		}
+		assertEquals(4, controller.getLimit());
+	}
+
+	@Test
+	void idleShrinksByATenthDownToMin() {
+		AimdConcurrencyController controller = grown(2, 20, 20);
+		controller.onReceive(0, 10);
+		assertEquals(18, controller.getLimit());
+		assertEquals("idle", controller.getLastDecision());
+
+		for (int i = 0; i < 100; i++) {
+			controller.onReceive(0, 10);
+		}
+		assertEquals(2, controller.getLimit());
+	}
+
+	@Test
+	void partialReceiveHolds() {
+		AimdConcurrencyController controller = grown(1, 10, 5);
+		controller.onReceive(3, 10);
+
+		assertEquals(5, controller.getLimit());
+	}
+
+	@Test
+	void errorsCutByAQuarter() {
+		AimdConcurrencyController controller = grown(1, 20, 8);
+		for (int i = 0; i < 3; i++) {
+			controller.onHandled(TimeUnit.MILLISECONDS.toNanos(1), true);
+		}
+		controller.onReceive(10, 10);
+
+		assertEquals(6, controller.getLimit());
+		assertEquals("errors", controller.getLastDecision());
+	}
+
+	@Test
+	void slowHandlersCutByAQuarter() {
+		AimdConcurrencyController controller = grown(1, 20, 8);
+		for (int i = 0; i < 20; i++) {
+			controller.onHandled(TimeUnit.MILLISECONDS.toNanos(1), false);
+		}
+		controller.onHandled(TimeUnit.MILLISECONDS.toNanos(100), false);
+		controller.onReceive(10, 10);
+
+		assertEquals(6, controller.getLimit());
+		assertEquals("latency", controller.getLastDecision());
+	}
+
+	/**
+	 * @return a controller whose limit was grown by full receives
+	 */
+	private static AimdConcurrencyController grown(int min, int max, int limit) {
+		AimdConcurrencyController controller = new AimdConcurrencyController(min, max);
+		while (controller.getLimit() < limit) {
+			controller.onReceive(10, 10);
+		}
+		return controller;
+	}
+}
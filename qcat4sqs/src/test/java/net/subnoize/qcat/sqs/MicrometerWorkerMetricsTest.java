@@ -0,0 +1,79 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.sqs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * @author John Bryant
+ *
+ */
+class MicrometerWorkerMetricsTest {
+
+	@Test
+	void gaugesSurviveGarbageCollection() throws InterruptedException {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		AtomicInteger inFlight = new AtomicInteger(3);
+		// fresh lambdas, nothing but the registry refers to them
+		new MicrometerWorkerMetrics(registry, Tags.of("listener", "test"), inFlight::get, () -> 2, () -> 7);
+
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		inFlight.set(4);
+
+		assertEquals(4, registry.get("qcat.inflight").gauge().value());
+		assertEquals(2, registry.get("qcat.executor.queue").gauge().value());
+		assertEquals(7, registry.get("qcat.concurrency.limit").gauge().value());
+	}
+
+	@Test
+	void closeRemovesTheMeters() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		MicrometerWorkerMetrics metrics = new MicrometerWorkerMetrics(registry, Tags.of("listener", "test"),
+				() -> 1, () -> 2, () -> 7);
+		assertFalse(registry.getMeters().isEmpty());
+
+		metrics.close();
+
+		assertTrue(registry.getMeters().isEmpty());
+	}
+
+	@Test
+	void tagsNameTheClassInFullAndEveryQueue() throws NoSuchMethodException {
+		SqsExecutionTemplate template = new SqsExecutionTemplate();
+		template.setMethod(MicrometerWorkerMetricsTest.class.getDeclaredMethod("closeRemovesTheMeters"));
+		template.setQueueUrls(List.of("https://sqs.local/000000000000/urgent", "https://sqs.local/000000000000/bulk"));
+
+		Tags tags = MicrometerWorkerMetrics.tags(template);
+
+		assertEquals(Tags.of("listener", MicrometerWorkerMetricsTest.class.getName() + ".closeRemovesTheMeters",
+				"queue", "urgent,bulk"), tags);
+	}
+}
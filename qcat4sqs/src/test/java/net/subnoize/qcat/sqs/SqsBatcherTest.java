@@ -0,0 +1,272 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.sqs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+/**
+ * @author John Bryant
+ *
+ */
+class SqsBatcherTest {
+
+	private static final String QUEUE = "https://sqs.local/000000000000/test";
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+	@AfterEach
+	void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	void flushSendsBeforeTheLinger() throws Exception {
+		Recorder batcher = new Recorder(60000, 0, Integer.MAX_VALUE);
+		CompletableFuture<String> a = batcher.add(QUEUE, "a");
+		CompletableFuture<String> b = batcher.add(QUEUE, "b");
+		assertTrue(batcher.batches.isEmpty());
+
+		batcher.flush().get();
+
+		assertEquals(List.of(List.of("a", "b")), batcher.batches);
+		assertEquals("A", a.get());
+		assertEquals("B", b.get());
+	}
+
+	@Test
+	void lingerSendsOnItsOwn() throws Exception {
+		Recorder batcher = new Recorder(10, 0, Integer.MAX_VALUE);
+
+		assertEquals("A", batcher.add(QUEUE, "a").get());
+		assertEquals(List.of(List.of("a")), batcher.batches);
+	}
+
+	@Test
+	void fullBatchSendsAtOnce() {
+		Recorder batcher = new Recorder(60000, 0, Integer.MAX_VALUE);
+		for (int i = 0; i < SqsBatcher.MAX_ENTRIES + 1; i++) {
+			batcher.add(QUEUE, "e" + i);
+		}
+
+		assertEquals(1, batcher.batches.size());
+		assertEquals(SqsBatcher.MAX_ENTRIES, batcher.batches.get(0).size());
+	}
+
+	@Test
+	void byteLimitSplitsBatches() throws Exception {
+		Recorder batcher = new Recorder(60000, 0, 10);
+		batcher.add(QUEUE, "aaaa");
+		batcher.add(QUEUE, "bbbb");
+		// 12 bytes would be over the limit, the first two go on their own
+		batcher.add(QUEUE, "cccc");
+		batcher.flush().get();
+
+		assertEquals(List.of(List.of("aaaa", "bbbb"), List.of("cccc")), batcher.batches);
+	}
+
+	@Test
+	void retriesWhatSqsFailed() throws Exception {
+		Recorder batcher = new Recorder(60000, 2, Integer.MAX_VALUE);
+		batcher.failures.put("b", 1);
+		CompletableFuture<String> a = batcher.add(QUEUE, "a");
+		CompletableFuture<String> b = batcher.add(QUEUE, "b");
+		// the failed entry waits for the next batch
+		batcher.flush();
+		assertEquals("A", a.get());
+		assertFalse(b.isDone());
+
+		batcher.flush().get();
+
+		assertEquals(List.of(List.of("a", "b"), List.of("b")), batcher.batches);
+		assertEquals("B", b.get());
+	}
+
+	@Test
+	void givesUpAfterTheRetries() {
+		Recorder batcher = new Recorder(60000, 1, Integer.MAX_VALUE);
+		batcher.failures.put("a", 2);
+		CompletableFuture<String> a = batcher.add(QUEUE, "a");
+		batcher.flush();
+		batcher.flush();
+
+		assertEquals(2, batcher.batches.size());
+		assertEquals("ServiceUnavailable", cause(a).getCode());
+	}
+
+	@Test
+	void neverRetriesSenderFaults() {
+		Recorder batcher = new Recorder(60000, 2, Integer.MAX_VALUE);
+		batcher.senderFaults.add("a");
+		CompletableFuture<String> a = batcher.add(QUEUE, "a");
+		batcher.flush();
+
+		assertEquals(1, batcher.batches.size());
+		assertTrue(cause(a).isSenderFault());
+	}
+
+	@Test
+	void retriesFailedRequests() throws Exception {
+		Recorder batcher = new Recorder(60000, 2, Integer.MAX_VALUE);
+		batcher.requestFailures.add(SqsException.builder().statusCode(500).message("InternalError").build());
+		batcher.requestFailures.add(SqsException.builder().statusCode(400).message("Throttling")
+				.awsErrorDetails(AwsErrorDetails.builder().errorCode("Throttling").build()).build());
+		CompletableFuture<String> a = batcher.add(QUEUE, "a");
+		CompletableFuture<String> b = batcher.add(QUEUE, "b");
+		batcher.flush();
+		batcher.flush();
+		assertFalse(a.isDone());
+
+		batcher.flush().get();
+
+		assertEquals(3, batcher.batches.size());
+		assertEquals("A", a.get());
+		assertEquals("B", b.get());
+	}
+
+	@Test
+	void givesUpOnFailedRequestsAfterTheRetries() {
+		Recorder batcher = new Recorder(60000, 1, Integer.MAX_VALUE);
+		Throwable failure = SqsException.builder().statusCode(503).message("ServiceUnavailable").build();
+		batcher.requestFailures.add(failure);
+		batcher.requestFailures.add(failure);
+		CompletableFuture<String> a = batcher.add(QUEUE, "a");
+		batcher.flush();
+		batcher.flush();
+
+		assertEquals(2, batcher.batches.size());
+		assertSame(failure, requestCause(a));
+	}
+
+	@Test
+	void neverRetriesClientFaultRequests() {
+		Recorder batcher = new Recorder(60000, 2, Integer.MAX_VALUE);
+		Throwable failure = SqsException.builder().statusCode(400).message("AccessDenied").build();
+		batcher.requestFailures.add(failure);
+		CompletableFuture<String> a = batcher.add(QUEUE, "a");
+		batcher.flush();
+
+		assertEquals(1, batcher.batches.size());
+		assertSame(failure, requestCause(a));
+	}
+
+	private static Throwable requestCause(CompletableFuture<?> future) {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			return e.getCause();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		throw new AssertionError("Entry did not fail");
+	}
+
+	private static SqsBatchEntryException cause(CompletableFuture<?> future) {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			return (SqsBatchEntryException) e.getCause();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		throw new AssertionError("Entry did not fail");
+	}
+
+	/**
+	 * Answers every entry with its upper case, failing the ones it is told to
+	 */
+	private final class Recorder extends SqsBatcher<String, String> {
+
+		private final int maxBytes;
+
+		private final List<List<String>> batches = new ArrayList<>();
+
+		private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+
+		private final Set<String> senderFaults = ConcurrentHashMap.newKeySet();
+
+		private final Deque<Throwable> requestFailures = new ConcurrentLinkedDeque<>();
+
+		private Recorder(long linger, int maxRetries, int maxBytes) {
+			super(null, scheduler, linger, maxRetries);
+			this.maxBytes = maxBytes;
+		}
+
+		@Override
+		protected int sizeOf(String entry) {
+			return entry.length();
+		}
+
+		@Override
+		protected int maxBytes() {
+			return maxBytes;
+		}
+
+		@Override
+		protected synchronized CompletableFuture<Outcome<String>> execute(String queueUrl,
+				Map<String, String> entries) {
+			Map<String, String> sorted = new TreeMap<>(entries);
+			batches.add(new ArrayList<>(sorted.values()));
+			Throwable requestFailure = requestFailures.poll();
+			if (requestFailure != null) {
+				return CompletableFuture.failedFuture(requestFailure);
+			}
+			List<BatchResultErrorEntry> failed = new ArrayList<>();
+			Map<String, String> successful = new TreeMap<>();
+			sorted.forEach((id, entry) -> {
+				if (senderFaults.contains(entry)) {
+					failed.add(error(id, "InvalidParameterValue", true));
+				} else if (failures.getOrDefault(entry, 0) > 0) {
+					failures.merge(entry, -1, Integer::sum);
+					failed.add(error(id, "ServiceUnavailable", false));
+				} else {
+					successful.put(id, entry.toUpperCase());
+				}
+			});
+			Outcome<String> outcome = new Outcome<>(failed);
+			successful.forEach(outcome::success);
+			return CompletableFuture.completedFuture(outcome);
+		}
+
+		private BatchResultErrorEntry error(String id, String code, boolean senderFault) {
+			return BatchResultErrorEntry.builder().id(id).code(code).senderFault(senderFault).build();
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.sqs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import net.subnoize.qcat.send.Compression;
+
+/**
+ * @author John Bryant
+ *
+ */
+class SqsCompressionTest {
+
+	private static final String BODY = StringUtils.repeat("{\"order\":42,\"state\":\"NEW\"}", 200);
+
+	@Test
+	void gzipReadsBackWithTheJdk() throws IOException {
+		String compressed = SqsCompression.compress(BODY, Compression.GZIP);
+
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(compressed)))) {
+			assertEquals(BODY, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void readsGzipOfTheJdk() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(BODY.getBytes(StandardCharsets.UTF_8));
+		}
+
+		assertEquals(BODY, SqsCompression.decompress(Base64.getEncoder().encodeToString(bytes.toByteArray()), "gzip",
+				SqsCompression.MAX_DECOMPRESSED_SIZE));
+	}
+
+	@Test
+	void deflateRoundTripsWithTheJdk() throws IOException {
+		String compressed = SqsCompression.compress(BODY, Compression.DEFLATE);
+		try (InputStream in = new InflaterInputStream(
+				new ByteArrayInputStream(Base64.getDecoder().decode(compressed)))) {
+			assertEquals(BODY, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = new DeflaterOutputStream(bytes)) {
+			out.write(BODY.getBytes(StandardCharsets.UTF_8));
+		}
+		assertEquals(BODY, SqsCompression.decompress(Base64.getEncoder().encodeToString(bytes.toByteArray()),
+				"deflate", SqsCompression.MAX_DECOMPRESSED_SIZE));
+	}
+
+	@Test
+	void poolKeepsNoMoreCodecsThanProcessors() throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors() * 4;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			CyclicBarrier together = new CyclicBarrier(threads);
+			List<Future<String>> compressed = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				compressed.add(pool.submit(() -> {
+					together.await();
+					return SqsCompression.compress(BODY, Compression.GZIP);
+				}));
+			}
+			for (Future<String> f : compressed) {
+				assertEquals(BODY, SqsCompression.decompress(f.get(), "gzip", SqsCompression.MAX_DECOMPRESSED_SIZE));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		assertTrue(SqsCompression.pooled() <= Runtime.getRuntime().availableProcessors());
+	}
+
+	@Test
+	void leavesWhatDoesNotShrink() {
+		assertNull(SqsCompression.compress("short", Compression.GZIP));
+	}
+
+	@Test
+	void decompressesUpToTheLimit() throws ZipException {
+		for (Compression compression : new Compression[] { Compression.GZIP, Compression.DEFLATE }) {
+			String compressed = SqsCompression.compress(BODY, compression);
+			String encoding = compression.name().toLowerCase();
+
+			assertEquals(BODY, SqsCompression.decompress(compressed, encoding, BODY.length()));
+			assertThrows(ZipException.class,
+					() -> SqsCompression.decompress(compressed, encoding, BODY.length() - 1));
+		}
+	}
+
+	@Test
+	void rejectsTruncatedExtraField() {
+		byte[] gzip = Base64.getDecoder().decode(SqsCompression.compress(BODY, Compression.GZIP));
+		byte[] header = new byte[18];
+		System.arraycopy(gzip, 0, header, 0, 10);
+		// FEXTRA with a length running past the end
+		header[3] = 4;
+		header[10] = (byte) 0xff;
+		header[11] = (byte) 0xff;
+		String body = Base64.getEncoder().encodeToString(header);
+
+		assertThrows(ZipException.class,
+				() -> SqsCompression.decompress(body, "gzip", SqsCompression.MAX_DECOMPRESSED_SIZE));
+	}
+}
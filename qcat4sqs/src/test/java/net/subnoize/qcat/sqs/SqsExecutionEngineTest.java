@@ -0,0 +1,164 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.sqs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author John Bryant
+ *
+ */
+class SqsExecutionEngineTest {
+
+	private SqsExecutionEngine engine;
+
+	@AfterEach
+	void shutdown() {
+		engine.shutdown();
+		engine.getScheduler().shutdownNow();
+	}
+
+	@Test
+	void laneRunsNoMoreThanItsMax() throws InterruptedException {
+		engine = newEngine(4);
+		SqsExecutionEngine.Lane lane = engine.newLane("max", 0, 2, 1);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(8);
+		for (int i = 0; i < 8; i++) {
+			lane.execute(() -> {
+				peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+				sleep(20);
+				running.decrementAndGet();
+				done.countDown();
+			});
+		}
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, peak.get());
+	}
+
+	@Test
+	void threadsSurviveErrorsAndAreDaemons() throws InterruptedException {
+		engine = newEngine(1);
+		SqsExecutionEngine.Lane lane = engine.newLane("errors", 0, 1, 1);
+		CountDownLatch done = new CountDownLatch(1);
+		boolean[] daemon = new boolean[1];
+		lane.execute(() -> {
+			throw new AssertionError("listener bug");
+		});
+		lane.execute(() -> {
+			daemon[0] = Thread.currentThread().isDaemon();
+			done.countDown();
+		});
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(daemon[0]);
+	}
+
+	@Test
+	void laneBelowItsMinGoesFirst() throws InterruptedException {
+		engine = newEngine(1);
+		SqsExecutionEngine.Lane belowMin = engine.newLane("min", 1, 1, 1);
+		SqsExecutionEngine.Lane heavy = engine.newLane("heavy", 0, 1, 100);
+		// the min lane has had its fair share and more
+		CountDownLatch warm = new CountDownLatch(10);
+		for (int i = 0; i < 10; i++) {
+			belowMin.execute(warm::countDown);
+		}
+		assertTrue(warm.await(5, TimeUnit.SECONDS));
+
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(4);
+		heavy.execute(() -> await(release));
+		for (int i = 0; i < 3; i++) {
+			heavy.execute(() -> {
+				order.add("heavy");
+				done.countDown();
+			});
+		}
+		belowMin.execute(() -> {
+			order.add("min");
+			done.countDown();
+		});
+		release.countDown();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals("min", order.get(0));
+	}
+
+	@Test
+	void lanesShareByWeight() throws InterruptedException {
+		engine = newEngine(1);
+		SqsExecutionEngine.Lane blocker = engine.newLane("blocker", 0, 1, 1);
+		SqsExecutionEngine.Lane three = engine.newLane("three", 0, 1, 3);
+		SqsExecutionEngine.Lane one = engine.newLane("one", 0, 1, 1);
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(80);
+		blocker.execute(() -> await(release));
+		for (int i = 0; i < 40; i++) {
+			three.execute(() -> {
+				order.add("three");
+				done.countDown();
+			});
+			one.execute(() -> {
+				order.add("one");
+				done.countDown();
+			});
+		}
+		release.countDown();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		long share = order.subList(0, 40).stream().filter("three"::equals).count();
+		assertTrue(share >= 29 && share <= 31, "weight 3 lane ran " + share + " of the first 40");
+	}
+
+	private static SqsExecutionEngine newEngine(int size) {
+		return new SqsExecutionEngine(size, Executors.newSingleThreadScheduledExecutor());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.sqs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.subnoize.qcat.blob.FileSystemBlobStore;
+import net.subnoize.qcat.codec.PayloadCodec;
+import net.subnoize.qcat.codec.PayloadCodecs;
+import net.subnoize.qcat.send.Compression;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+/**
+ * @author John Bryant
+ *
+ */
+class SqsPublisherTest {
+
+	private static final String QUEUE = "https://sqs.local/000000000000/results";
+
+	private static final String BODY = StringUtils.repeat("{\"order\":42,\"state\":\"NEW\"}", 200);
+
+	@TempDir
+	Path blobs;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+	private final Sends client = new Sends();
+
+	private final SqsSender sender = new SqsSender(client, scheduler, 60000, 0);
+
+	@AfterEach
+	void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	void jsonGoesAsItIs() throws Exception {
+		SqsPublisher publisher = new SqsPublisher(sender, null, 1024, 262144);
+		publish(publisher.publish(QUEUE, "{}", null, PayloadCodec.JSON, Compression.GZIP));
+
+		SendMessageBatchRequestEntry sent = client.entries.get(0);
+		assertEquals("{}", sent.messageBody());
+		assertFalse(sent.hasMessageAttributes() && !sent.messageAttributes().isEmpty());
+	}
+
+	@Test
+	void marksTheCodecAndCompresses() throws Exception {
+		SqsPublisher publisher = new SqsPublisher(sender, null, 1024, 262144);
+		publish(publisher.publish(QUEUE, BODY, null, PayloadCodec.SMILE, Compression.GZIP));
+
+		SendMessageBatchRequestEntry sent = client.entries.get(0);
+		assertEquals(PayloadCodec.SMILE, sent.messageAttributes().get(PayloadCodecs.ATTRIBUTE).stringValue());
+		assertEquals("gzip", sent.messageAttributes().get(SqsCompression.ATTRIBUTE).stringValue());
+		assertEquals(BODY, SqsCompression.decompress(sent.messageBody(), "gzip", BODY.length()));
+	}
+
+	@Test
+	void sendsLargeBodiesByClaimCheck() throws Exception {
+		FileSystemBlobStore store = new FileSystemBlobStore(blobs);
+		SqsPublisher publisher = new SqsPublisher(sender, store, 1024, 100);
+		publish(publisher.publish(QUEUE, BODY, null, null, Compression.NONE));
+
+		SendMessageBatchRequestEntry sent = client.entries.get(0);
+		assertTrue(sent.messageAttributes().containsKey(SqsClaimCheck.ATTRIBUTE));
+		assertEquals(BODY, StandardCharsets.UTF_8.decode(store.get(sent.messageBody()).get()).toString());
+	}
+
+	private void publish(CompletableFuture<?> sent) throws Exception {
+		sender.flush();
+		sent.get();
+	}
+
+	/**
+	 * Records every entry and answers it as sent
+	 */
+	private static final class Sends implements SqsAsyncClient {
+
+		private final List<SendMessageBatchRequestEntry> entries = new CopyOnWriteArrayList<>();
+
+		@Override
+		public CompletableFuture<SendMessageBatchResponse> sendMessageBatch(SendMessageBatchRequest request) {
+			entries.addAll(request.entries());
+			return CompletableFuture.completedFuture(SendMessageBatchResponse.builder()
+					.successful(request.entries().stream()
+							.map(e -> SendMessageBatchResultEntry.builder().id(e.id()).messageId("m-" + e.id()).build())
+							.collect(Collectors.toList()))
+					.failed(List.of()).build());
+		}
+
+		@Override
+		public String serviceName() {
+			return SERVICE_NAME;
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}
+	}
+}
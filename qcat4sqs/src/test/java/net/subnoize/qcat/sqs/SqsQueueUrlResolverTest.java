@@ -0,0 +1,142 @@
+/**
+ * (c)opyright 2020 subnoize llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.subnoize.qcat.sqs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse;
+import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+
+/**
+ * @author John Bryant
+ *
+ */
+class SqsQueueUrlResolverTest {
+
+	private static final String URL = "https://sqs.local/000000000000/orders";
+
+	private final Lookups client = new Lookups();
+
+	@Test
+	void urlsNeedNoLookup() throws Exception {
+		SqsQueueUrlResolver resolver = new SqsQueueUrlResolver(client, 60000, 60000);
+
+		assertEquals(URL, resolver.resolve(URL).get());
+		assertTrue(client.calls.isEmpty());
+	}
+
+	@Test
+	void concurrentResolvesShareOneLookup() throws Exception {
+		SqsQueueUrlResolver resolver = new SqsQueueUrlResolver(client, 60000, 60000);
+		CompletableFuture<String> first = resolver.resolve("orders");
+		CompletableFuture<String> second = resolver.resolve("orders");
+		assertFalse(first.isDone());
+
+		client.answer(0);
+
+		assertSame(first, second);
+		assertEquals(URL, second.get());
+		assertEquals(URL, resolver.resolve("orders").get());
+		assertEquals(1, client.calls.size());
+	}
+
+	@Test
+	void urlsExpireAfterTheTtl() throws Exception {
+		SqsQueueUrlResolver resolver = new SqsQueueUrlResolver(client, 50, 60000);
+		resolver.resolve("orders");
+		client.answer(0);
+		resolver.resolve("orders");
+		assertEquals(1, client.calls.size());
+
+		Thread.sleep(100);
+		resolver.resolve("orders");
+
+		assertEquals(2, client.calls.size());
+	}
+
+	@Test
+	void missingQueuesAreKeptForTheNegativeTtl() throws Exception {
+		SqsQueueUrlResolver resolver = new SqsQueueUrlResolver(client, 60000, 50);
+		resolver.resolve("orders");
+		client.calls.get(0).completeExceptionally(QueueDoesNotExistException.builder().message("gone").build());
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> resolver.resolve("orders").get());
+		assertTrue(e.getCause() instanceof QueueDoesNotExistException);
+		assertEquals(1, client.calls.size());
+
+		Thread.sleep(100);
+		resolver.resolve("orders");
+
+		assertEquals(2, client.calls.size());
+	}
+
+	@Test
+	void otherFailuresAreNotKept() {
+		SqsQueueUrlResolver resolver = new SqsQueueUrlResolver(client, 60000, 60000);
+		CompletableFuture<String> failed = resolver.resolve("orders");
+		client.calls.get(0).completeExceptionally(SdkClientException.create("timeout"));
+		assertTrue(failed.isCompletedExceptionally());
+
+		resolver.resolve("orders");
+
+		assertEquals(2, client.calls.size());
+	}
+
+	/**
+	 * Holds every GetQueueUrl call until the test answers it
+	 */
+	private static final class Lookups implements SqsAsyncClient {
+
+		private final List<CompletableFuture<GetQueueUrlResponse>> calls = new CopyOnWriteArrayList<>();
+
+		@Override
+		public CompletableFuture<GetQueueUrlResponse> getQueueUrl(GetQueueUrlRequest request) {
+			CompletableFuture<GetQueueUrlResponse> call = new CompletableFuture<>();
+			calls.add(call);
+			return call;
+		}
+
+		private void answer(int call) {
+			calls.get(call).complete(GetQueueUrlResponse.builder().queueUrl(URL).build());
+		}
+
+		@Override
+		public String serviceName() {
+			return SERVICE_NAME;
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}
+	}
+}